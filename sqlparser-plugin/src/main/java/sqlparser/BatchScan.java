@@ -0,0 +1,528 @@
+package sqlparser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Scans many container logs outside of Jenkins, for instance to reprocess archived logs
+ * after the parser was improved. Each log gets its own directory of the files
+ * {@link LogScan} writes, and {@link #SUMMARY_FILE} adds them up.
+ *
+ * <p>The logs are scanned in parallel, one per worker. They are dealt out largest first,
+ * so every worker starts on a big one, and a worker that has run out of logs takes the
+ * smallest one left from another worker, so a few large logs do not leave the other
+ * workers idle at the end.
+ *
+ * <p>Run with
+ * <code>java -cp sqlparser.jar:json.jar sqlparser.BatchScan [options] logDir outputDir</code>,
+ * see {@link #main(String[])} for the options.
+ */
+public final class BatchScan {
+    public static final String SUMMARY_FILE = "sql_batch.json";
+
+    private final ScanSettings settings;
+    private final Charset charset;
+    private final int workers;
+    private PrintStream progress;
+
+
+    /**
+     * @param workers number of logs scanned at the same time, 0 for one per processor
+     */
+    public BatchScan(ScanSettings settings, Charset charset, int workers) {
+        this.settings = settings;
+        this.charset = charset;
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Prints a line to the given stream as each log is done.
+     */
+    public void setProgress(PrintStream progress) {
+        this.progress = progress;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * The files under the directory, in any subdirectory, whose name matches, sorted by
+     * path. The given directory is skipped, so outputs are not taken for logs.
+     */
+    public static List<File> findLogs(File dir, Pattern name, File skip) {
+        List<File> logs = new ArrayList<File>();
+        find(dir, name, skip == null ? null : skip.getAbsoluteFile(), logs);
+        Collections.sort(logs);
+        return logs;
+    }
+
+    private static void find(File dir, Pattern name, File skip, List<File> logs) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.getAbsoluteFile().equals(skip)) {
+                    find(file, name, skip, logs);
+                }
+            } else if (file.isFile() && name.matcher(file.getName()).matches()) {
+                logs.add(file);
+            }
+        }
+    }
+
+    /**
+     * Scans the logs, each into the directory under outputDir at its path relative to
+     * logDir. A log that cannot be scanned is reported in its result, the others are
+     * scanned all the same. An error thrown while scanning a log is thrown from here once
+     * the other logs are done.
+     *
+     * @return the result of each log, in the order given
+     */
+    public List<Result> run(File logDir, List<File> logs, File outputDir) throws InterruptedException {
+        final Result[] results = new Result[logs.size()];
+        final Throwable[] errors = new Throwable[logs.size()];
+        final Task[] tasks = new Task[logs.size()];
+        String base = logDir.getPath();
+        for (int i = 0; i < tasks.length; i++) {
+            File log = logs.get(i);
+            String path = log.getPath();
+            String name = path.startsWith(base) ? path.substring(base.length() + 1) : log.getName();
+            tasks[i] = new Task(i, log, name.replace(File.separatorChar, '/'), new File(outputDir, name));
+        }
+
+        Task[] bySize = tasks.clone();
+        Arrays.sort(bySize, new Comparator<Task>() {
+            public int compare(Task a, Task b) {
+                return a.bytes > b.bytes ? -1 : a.bytes == b.bytes ? 0 : 1;
+            }
+        });
+        int threads = Math.max(1, Math.min(workers, tasks.length));
+        final List<LinkedBlockingDeque<Task>> queues = new ArrayList<LinkedBlockingDeque<Task>>();
+        for (int w = 0; w < threads; w++) {
+            queues.add(new LinkedBlockingDeque<Task>());
+        }
+        for (int i = 0; i < bySize.length; i++) {
+            queues.get(i % threads).addLast(bySize[i]);
+        }
+
+        Thread[] running = new Thread[threads];
+        for (int w = 0; w < threads; w++) {
+            final int own = w;
+            running[w] = new Thread("SQLParser batch " + w) {
+                @Override
+                public void run() {
+                    Task task;
+                    while ((task = next(queues, own)) != null) {
+                        try {
+                            results[task.index] = scan(task);
+                        } catch (InterruptedException e) {
+                            // abandoned
+                            return;
+                        } catch (Throwable t) {
+                            // the other workers take over the rest of the queue
+                            errors[task.index] = t;
+                            return;
+                        }
+                    }
+                }
+            };
+            running[w].start();
+        }
+        try {
+            for (Thread thread : running) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : running) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] instanceof Error) {
+                throw (Error) errors[i];
+            } else if (errors[i] != null) {
+                throw new IllegalStateException("Batch scan of " + tasks[i].name + " failed", errors[i]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * The next log from the worker's own queue, or else the last one of another worker's,
+     * null once every queue is empty. No logs are added once the workers run, so an empty
+     * queue stays empty.
+     */
+    private static Task next(List<LinkedBlockingDeque<Task>> queues, int own) {
+        Task task = queues.get(own).pollFirst();
+        for (int i = 1; task == null && i < queues.size(); i++) {
+            task = queues.get((own + i) % queues.size()).pollLast();
+        }
+        return task;
+    }
+
+    private Result scan(Task task) throws InterruptedException {
+        Result result = new Result(task.name, task.bytes, task.outputDir);
+        long start = System.nanoTime();
+        try {
+            if (!task.outputDir.isDirectory() && !task.outputDir.mkdirs()) {
+                throw new IOException("Could not create " + task.outputDir);
+            }
+            LogScan scan = settings.newScan(task.outputDir, null, charset);
+            scan.run(task.log);
+            result.scanned(scan);
+        } catch (IOException e) {
+            result.error = e.toString();
+        } catch (RuntimeException e) {
+            result.error = e.toString();
+        }
+        result.millis = (System.nanoTime() - start) / 1000000;
+        if (progress != null) {
+            synchronized (progress) {
+                progress.println("[SQLParser] " + result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the totals of all logs, the result of each and the schema summaries merged,
+     * as {@link #SUMMARY_FILE} in the given directory.
+     */
+    public static void writeSummary(List<Result> results, File outputDir) throws IOException {
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(new File(outputDir, SUMMARY_FILE)), "UTF-8");
+            try {
+                out.write(summary(results).toString(4));
+            } finally {
+                out.close();
+            }
+        } catch (JSONException e) {
+            IOException failure = new IOException("Could not write " + SUMMARY_FILE);
+            failure.initCause(e);
+            throw failure;
+        }
+    }
+
+    static JSONObject summary(List<Result> results) throws JSONException {
+        long bytes = 0;
+        long records = 0;
+        long failed = 0;
+        long connections = 0;
+        long millis = 0;
+        int errors = 0;
+        Map<ParseResult.Reason, Integer> failures = new EnumMap<ParseResult.Reason, Integer>(ParseResult.Reason.class);
+        Map<String, Map<String, Set<String>>> schemas = new TreeMap<String, Map<String, Set<String>>>();
+        JSONArray logs = new JSONArray();
+        for (Result result : results) {
+            logs.put(result.toJSON());
+            bytes += result.bytes;
+            millis += result.millis;
+            if (result.error != null) {
+                errors++;
+                continue;
+            }
+            records += result.records;
+            failed += result.failed;
+            connections += result.connections;
+            for (Map.Entry<ParseResult.Reason, Integer> failure : result.failures.entrySet()) {
+                Integer count = failures.get(failure.getKey());
+                failures.put(failure.getKey(), (count == null ? 0 : count) + failure.getValue());
+            }
+            for (Map.Entry<String, Map<String, Set<String>>> schema : result.schemas.entrySet()) {
+                Map<String, Set<String>> tables = schemas.get(schema.getKey());
+                if (tables == null) {
+                    tables = new TreeMap<String, Set<String>>();
+                    schemas.put(schema.getKey(), tables);
+                }
+                for (Map.Entry<String, Set<String>> table : schema.getValue().entrySet()) {
+                    Set<String> columns = tables.get(table.getKey());
+                    if (columns == null) {
+                        columns = new TreeSet<String>();
+                        tables.put(table.getKey(), columns);
+                    }
+                    columns.addAll(table.getValue());
+                }
+            }
+        }
+
+        JSONObject totals = new JSONObject();
+        totals.put("logs", results.size());
+        totals.put("errors", errors);
+        totals.put("bytes", bytes);
+        totals.put("millis", millis);
+        totals.put("records", records);
+        totals.put("failed", failed);
+        totals.put("failures", failuresToJSON(failures));
+        totals.put("connections", connections);
+        JSONObject json = new JSONObject();
+        json.put("totals", totals);
+        json.put("logs", logs);
+        JSONObject schemasJson = new JSONObject();
+        for (Map.Entry<String, Map<String, Set<String>>> schema : schemas.entrySet()) {
+            JSONObject tables = new JSONObject();
+            for (Map.Entry<String, Set<String>> table : schema.getValue().entrySet()) {
+                tables.put(table.getKey(), new JSONArray(table.getValue()));
+            }
+            schemasJson.put(schema.getKey(), tables);
+        }
+        json.put("schemas", schemasJson);
+        return json;
+    }
+
+    private static JSONObject failuresToJSON(Map<ParseResult.Reason, Integer> failures) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<ParseResult.Reason, Integer> failure : failures.entrySet()) {
+            json.put(failure.getKey().name(), failure.getValue().intValue());
+        }
+        return json;
+    }
+
+    /**
+     * Scans the logs of a directory. Options:
+     * <dl>
+     * <dt>--workers n</dt><dd>logs scanned at the same time, one per processor by default</dd>
+     * <dt>--parse-threads n</dt><dd>threads matching the lines of each log, 1 by default</dd>
+     * <dt>--name regex</dt><dd>names of the files to scan, by default those containing ".log"</dd>
+     * <dt>--sample percent</dt><dd>share of the statements processed in full, 100 by default</dd>
+     * <dt>--timeline seconds</dt><dd>width of the timeline buckets, 60 by default</dd>
+     * <dt>--time-zone id</dt><dd>zone the log timestamps were written in, the platform's by default</dd>
+     * <dt>--charset name</dt><dd>encoding of the logs, the platform's by default</dd>
+     * </dl>
+     * Exits with 1 if a log could not be scanned and 2 on wrong arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        int workers = 0;
+        int parseThreads = 1;
+        Pattern name = Pattern.compile(".*\\.log.*");
+        double samplePercent = 100;
+        int timelineSeconds = 0;
+        TimeZone zone = null;
+        Charset charset = Charset.defaultCharset();
+        List<String> dirs = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    dirs.add(arg);
+                } else if (i + 1 == args.length) {
+                    throw new IllegalArgumentException(arg + " needs a value");
+                } else if (arg.equals("--workers")) {
+                    workers = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--parse-threads")) {
+                    parseThreads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--name")) {
+                    name = Pattern.compile(args[++i]);
+                } else if (arg.equals("--sample")) {
+                    samplePercent = Double.parseDouble(args[++i]);
+                } else if (arg.equals("--timeline")) {
+                    timelineSeconds = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--time-zone")) {
+                    zone = ScanSettings.zone(args[++i]);
+                } else if (arg.equals("--charset")) {
+                    charset = Charset.forName(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (dirs.size() != 2) {
+                throw new IllegalArgumentException("Expected a log directory and an output directory");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BatchScan [--workers n] [--parse-threads n] [--name regex] [--sample percent]"
+                    + " [--timeline seconds] [--time-zone id] [--charset name] logDir outputDir");
+            System.exit(2);
+        }
+
+        File logDir = new File(dirs.get(0));
+        File outputDir = new File(dirs.get(1));
+        List<File> logs = findLogs(logDir, name, outputDir);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        BatchScan batch = new BatchScan(new ScanSettings(parseThreads, 0, 0, samplePercent / 100,
+                timelineSeconds * 1000L, zone), charset, workers);
+        batch.setProgress(System.out);
+        System.out.println("[SQLParser] Scanning " + logs.size() + " logs with " + batch.getWorkers() + " workers");
+        long start = System.nanoTime();
+        List<Result> results = batch.run(logDir, logs, outputDir);
+        writeSummary(results, outputDir);
+        int errors = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                errors++;
+            }
+        }
+        System.out.println("[SQLParser] " + (logs.size() - errors) + " logs scanned, " + errors + " failed, in "
+                + (System.nanoTime() - start) / 1000000 + " ms; see " + new File(outputDir, SUMMARY_FILE));
+        System.exit(errors > 0 ? 1 : 0);
+    }
+
+    private static final class Task {
+        final int index;
+        final File log;
+        final String name;
+        final File outputDir;
+        final long bytes;
+
+        Task(int index, File log, String name, File outputDir) {
+            this.index = index;
+            this.log = log;
+            this.name = name;
+            this.outputDir = outputDir;
+            this.bytes = log.length();
+        }
+    }
+
+    /**
+     * What was found in one log, kept small since all of them are held until the summary
+     * is written.
+     */
+    public static final class Result {
+        private final String log;
+        private final long bytes;
+        private final File outputDir;
+        private long millis;
+        private String error;
+        private int records;
+        private int failed;
+        private long connections;
+        private List<String> churning = Collections.emptyList();
+        private Map<ParseResult.Reason, Integer> failures = Collections.emptyMap();
+        private Map<String, Map<String, Set<String>>> schemas = Collections.emptyMap();
+        private List<String> summary = Collections.emptyList();
+
+        Result(String log, long bytes, File outputDir) {
+            this.log = log;
+            this.bytes = bytes;
+            this.outputDir = outputDir;
+        }
+
+        void scanned(LogScan scan) {
+            records = scan.getRecords();
+            failed = scan.getSchema().getFailed();
+            failures = new EnumMap<ParseResult.Reason, Integer>(scan.getSchema().getFailures());
+            connections = scan.getWorkload().getConnections();
+            churning = scan.getWorkload().getChurning();
+            summary = scan.summary();
+            schemas = new TreeMap<String, Map<String, Set<String>>>();
+            JSONObject json = scan.getSchema().getParser().getResults();
+            if (json == null) {
+                return;
+            }
+            try {
+                for (Iterator<?> s = json.keys(); s.hasNext();) {
+                    String schema = (String) s.next();
+                    JSONObject tablesJson = json.getJSONObject(schema);
+                    Map<String, Set<String>> tables = new TreeMap<String, Set<String>>();
+                    for (Iterator<?> t = tablesJson.keys(); t.hasNext();) {
+                        String table = (String) t.next();
+                        JSONArray columnsJson = tablesJson.getJSONArray(table);
+                        Set<String> columns = new TreeSet<String>();
+                        for (int c = 0; c < columnsJson.length(); c++) {
+                            columns.add(columnsJson.getString(c));
+                        }
+                        tables.put(table, columns);
+                    }
+                    schemas.put(schema, tables);
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException("Unexpected schema summary", e);
+            }
+        }
+
+        /**
+         * Path of the log relative to the directory scanned, with / between directories.
+         */
+        public String getLog() {
+            return log;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public File getOutputDir() {
+            return outputDir;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Why the log could not be scanned, null if it was.
+         */
+        public String getError() {
+            return error;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * The lines of {@link LogScan#summary()}.
+         */
+        public List<String> getSummary() {
+            return summary;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("log", log);
+            json.put("bytes", bytes);
+            json.put("millis", millis);
+            if (error != null) {
+                json.put("error", error);
+                return json;
+            }
+            json.put("records", records);
+            json.put("failed", failed);
+            json.put("failures", failuresToJSON(failures));
+            json.put("connections", connections);
+            json.put("churning", new JSONArray(churning));
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return log + ": " + error;
+            }
+            return log + ": " + records + " statements, " + failed + " not understood, " + connections
+                    + " connections, in " + millis + " ms";
+        }
+    }
+}
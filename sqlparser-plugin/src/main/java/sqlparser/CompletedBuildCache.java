@@ -0,0 +1,48 @@
+package sqlparser;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * What a page shows about a project's last completed build, worked out once and kept until
+ * the next build of the project completes. Projects are held weakly, so a deleted project
+ * drops its entry.
+ *
+ * @param <P> the project
+ * @param <V> what is shown about its last completed build
+ */
+public final class CompletedBuildCache<P, V> {
+
+    /**
+     * Works out the value from the builds of a project.
+     */
+    public interface Loader<P, V> {
+        V load(P project);
+    }
+
+    private final Map<P, V> values = new WeakHashMap<P, V>();
+    private final Loader<P, V> loader;
+
+    public CompletedBuildCache(Loader<P, V> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * The cached value, loaded on the first call after the project's last build completed.
+     */
+    public synchronized V get(P project) {
+        V value = values.get(project);
+        if (value == null) {
+            value = loader.load(project);
+            values.put(project, value);
+        }
+        return value;
+    }
+
+    /**
+     * Drops the value of a project whose build just completed.
+     */
+    public synchronized void completed(P project) {
+        values.remove(project);
+    }
+}
@@ -0,0 +1,258 @@
+package sqlparser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What the log tells about the JDBC connections: per URL how many were opened, how many
+ * statements each ran, the rows read and the time between opens.
+ *
+ * <p>Every ConnectionLogger line opens a connection, which runs the statements logged
+ * until the next one. Memory stays bounded however long the log is: individual
+ * connections are only kept in log2 histograms and a short list of the busiest ones, and
+ * URLs beyond {@link #MAX_URLS} are counted together.
+ *
+ * <p>A URL is flagged as churning when at least {@link #CHURN_MIN_OPENS} connections were
+ * opened for it and they ran fewer than {@link #CHURN_MAX_STATEMENTS} statements each on
+ * average, which usually means the pool hands out a new connection per statement.
+ */
+public final class ConnectionWorkload implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_URLS = 256;
+    public static final int CHURN_MIN_OPENS = 10;
+    public static final double CHURN_MAX_STATEMENTS = 2;
+
+    private static final String OTHER = "(other)";
+    private static final int BUCKETS = 32;
+    private static final int BUSIEST = 10;
+
+    private final Map<String, Url> urls = new LinkedHashMap<String, Url>();
+    private Url url;
+    private Connection connection;
+    private long connections;
+
+    /**
+     * Starts a new connection.
+     *
+     * @param connect the ConnectionLogger payload, "connect to URL ... for user ..."
+     * @param openedAt when it was opened, -1 if unknown
+     */
+    public void opened(String connect, long openedAt) {
+        if (url != null) {
+            url.closed(connection);
+        }
+        String name = QueryRecord.connectionUrl(connect);
+        url = urls.get(name);
+        if (url == null) {
+            if (urls.size() >= MAX_URLS) {
+                name = OTHER;
+                url = urls.get(name);
+            }
+            if (url == null) {
+                url = new Url(name);
+                urls.put(name, url);
+            }
+        }
+        connection = new Connection(++connections, openedAt);
+        url.opened(connection);
+    }
+
+    /**
+     * Counts a statement against the current connection. Statements logged before any
+     * connection are not counted.
+     */
+    public void statement(long rows) {
+        if (url != null) {
+            url.statement(connection, rows);
+        }
+    }
+
+    public long getConnections() {
+        return connections;
+    }
+
+    /**
+     * URLs that look like they open a connection per statement.
+     */
+    public List<String> getChurning() {
+        List<String> churning = new ArrayList<String>();
+        for (Url u : urls.values()) {
+            if (u.isChurning()) {
+                churning.add(u.name);
+            }
+        }
+        return churning;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("connections", connections);
+        JSONArray list = new JSONArray();
+        for (Url u : urls.values()) {
+            list.put(u.toJSON(u == url ? connection : null));
+        }
+        json.put("urls", list);
+        return json;
+    }
+
+    /**
+     * Histogram bucket of a non-negative value: 0 for 0, then 1 + floor(log2(value)).
+     */
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static JSONArray histogram(long[] counts, String unit) throws JSONException {
+        JSONArray json = new JSONArray();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            JSONObject bucket = new JSONObject();
+            bucket.put(unit, i == 0 ? "0" : i == 1 ? "1" : (1L << (i - 1)) + "-" + ((1L << i) - 1));
+            bucket.put("count", counts[i]);
+            json.put(bucket);
+        }
+        return json;
+    }
+
+    private static final class Connection implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long number;
+        final long openedAt;
+        long statements;
+        long rows;
+
+        Connection(long number, long openedAt) {
+            this.number = number;
+            this.openedAt = openedAt;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("connection", number);
+            if (openedAt != -1) {
+                json.put("openedAt", openedAt);
+            }
+            json.put("statements", statements);
+            json.put("rows", rows);
+            return json;
+        }
+    }
+
+    private static final class Url implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        long opens;
+        long statements;
+        long rows;
+        long lastOpen = -1;
+        long gaps;
+        long gapSum;
+        long gapMin = Long.MAX_VALUE;
+        long gapMax;
+        final long[] gapHistogram = new long[BUCKETS];
+        final long[] statementHistogram = new long[BUCKETS];
+        final List<Connection> busiest = new ArrayList<Connection>();
+
+        Url(String name) {
+            this.name = name;
+        }
+
+        void opened(Connection c) {
+            opens++;
+            statementHistogram[0]++;
+            if (c.openedAt != -1) {
+                if (lastOpen != -1 && c.openedAt >= lastOpen) {
+                    long gap = c.openedAt - lastOpen;
+                    gaps++;
+                    gapSum += gap;
+                    gapMin = Math.min(gapMin, gap);
+                    gapMax = Math.max(gapMax, gap);
+                    gapHistogram[bucket(gap)]++;
+                }
+                lastOpen = c.openedAt;
+            }
+        }
+
+        void statement(Connection c, long read) {
+            statementHistogram[bucket(c.statements)]--;
+            c.statements++;
+            c.rows += read;
+            statementHistogram[bucket(c.statements)]++;
+            statements++;
+            rows += read;
+        }
+
+        void closed(Connection c) {
+            offer(busiest, c);
+        }
+
+        boolean isChurning() {
+            return opens >= CHURN_MIN_OPENS && statements < CHURN_MAX_STATEMENTS * opens;
+        }
+
+        JSONObject toJSON(Connection open) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("url", name);
+            json.put("opens", opens);
+            json.put("statements", statements);
+            json.put("rows", rows);
+            json.put("statementsPerConnection", opens == 0 ? 0 : Math.round(statements * 100.0 / opens) / 100.0);
+            json.put("statementsPerConnectionHistogram", histogram(statementHistogram, "statements"));
+            if (gaps > 0) {
+                JSONObject between = new JSONObject();
+                between.put("min", gapMin);
+                between.put("mean", gapSum / gaps);
+                between.put("max", gapMax);
+                between.put("histogram", histogram(gapHistogram, "ms"));
+                json.put("millisBetweenOpens", between);
+            }
+            json.put("churning", isChurning());
+
+            List<Connection> top = new ArrayList<Connection>(busiest);
+            if (open != null) {
+                offer(top, open);
+            }
+            JSONArray list = new JSONArray();
+            for (Connection c : top) {
+                list.put(c.toJSON());
+            }
+            json.put("busiestConnections", list);
+            return json;
+        }
+
+        /**
+         * Keeps the list at the {@link #BUSIEST} connections with the most statements.
+         */
+        private static void offer(List<Connection> list, Connection c) {
+            if (list.size() == BUSIEST && list.get(BUSIEST - 1).statements >= c.statements) {
+                return;
+            }
+            list.add(c);
+            Collections.sort(list, new Comparator<Connection>() {
+                public int compare(Connection a, Connection b) {
+                    if (a.statements != b.statements) {
+                        return a.statements > b.statements ? -1 : 1;
+                    }
+                    return a.number < b.number ? -1 : a.number == b.number ? 0 : 1;
+                }
+            });
+            if (list.size() > BUSIEST) {
+                list.remove(BUSIEST);
+            }
+        }
+    }
+}
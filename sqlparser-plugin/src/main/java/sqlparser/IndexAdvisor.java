@@ -0,0 +1,276 @@
+package sqlparser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Suggests indexes from the columns the logged statements filter on.
+ *
+ * <p>For every statement the WHERE predicates are attributed to their tables and split
+ * into equality (<code>=</code>, <code>in</code>, <code>is null</code>), range
+ * (<code>&lt;</code>, <code>&gt;</code>, <code>between</code>) and <code>like</code>
+ * predicates. Each distinct (table, predicate columns) combination is counted and weighted
+ * by the execution time jdbcdslog logged for the statement. A candidate index lists the
+ * equality columns followed by at most one range or like column, since an index cannot
+ * seek past the first range.
+ */
+public final class IndexAdvisor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int EQUALITY = 0;
+    public static final int RANGE = 1;
+    public static final int LIKE = 2;
+
+    private static final String[] KIND_NAMES = { "equality", "range", "like" };
+
+    private static final Pattern TABLE = Pattern.compile(
+            "([a-z_][a-z0-9_]*)\\.([a-z_][a-z0-9_]*)(?:\\s+(?:as\\s+)?([a-z_][a-z0-9_]*))?");
+    private static final Pattern PREDICATE = Pattern.compile(
+            "(?:([a-z_][a-z0-9_]*)\\.)?([a-z_][a-z0-9_]*)\\s*(<=|>=|<>|!=|=|<|>|not\\s+like\\b|like\\b|not\\s+in\\b|in\\b"
+                    + "|is\\s+not\\b|is\\b|between\\b)");
+    private static final Pattern CLAUSE_END = Pattern.compile(
+            " order by | group by | having | union |select |;|\\)\\s*$");
+    private static final Pattern TIME = Pattern.compile(";\\s*(\\d+)\\s*ms\\.?\\s*$");
+    private static final String[] KEYWORDS = { "where", "inner", "left", "right", "join", "on", "order",
+            "group", "union", "set", "values", "and", "or", "not" };
+
+    private final Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+
+    /**
+     * Records the predicates of one statement.
+     *
+     * @param query the lower-cased statement as logged, timing suffix included
+     */
+    public void record(String query) {
+        add(predicates(query), millis(query));
+    }
+
+    /**
+     * Records predicates taken out of a statement earlier by {@link #predicates(String)}.
+     */
+    void add(Map<String, Map<String, Integer>> predicates, long millis) {
+        for (Map.Entry<String, Map<String, Integer>> table : predicates.entrySet()) {
+            String key = table.getKey() + " " + table.getValue();
+            Candidate candidate = candidates.get(key);
+            if (candidate == null) {
+                candidate = new Candidate(table.getKey(), table.getValue());
+                candidates.put(key, candidate);
+            }
+            candidate.statements++;
+            candidate.millis += millis;
+        }
+    }
+
+    /**
+     * The columns the statement filters on per table, each with the kind of its most
+     * selective predicate.
+     */
+    static Map<String, Map<String, Integer>> predicates(String query) {
+        Map<String, Map<String, Integer>> predicates = new TreeMap<String, Map<String, Integer>>();
+        if (query.indexOf(" where ") == -1) {
+            return predicates;
+        }
+        Map<String, String> aliases = aliases(query);
+        if (aliases.isEmpty()) {
+            return predicates;
+        }
+        String defaultTable = aliases.values().iterator().next();
+
+        int where = query.indexOf(" where ");
+        while (where != -1) {
+            String clause = query.substring(where + 7);
+            Matcher end = CLAUSE_END.matcher(clause);
+            if (end.find()) {
+                clause = clause.substring(0, end.start());
+            }
+            Matcher m = PREDICATE.matcher(clause);
+            while (m.find()) {
+                String table = m.group(1) == null ? defaultTable : aliases.get(m.group(1));
+                Integer kind = kind(m.group(3));
+                if (table == null || kind == null || isKeyword(m.group(2))) {
+                    continue;
+                }
+                Map<String, Integer> columns = predicates.get(table);
+                if (columns == null) {
+                    columns = new TreeMap<String, Integer>();
+                    predicates.put(table, columns);
+                }
+                Integer previous = columns.get(m.group(2));
+                if (previous == null || previous.intValue() > kind.intValue()) {
+                    columns.put(m.group(2), kind);
+                }
+            }
+            where = query.indexOf(" where ", where + 7);
+        }
+        return predicates;
+    }
+
+    /**
+     * Candidates, heaviest first: by total logged time, then by number of statements.
+     */
+    public List<Candidate> getCandidates() {
+        List<Candidate> ranked = new ArrayList<Candidate>(candidates.values());
+        Collections.sort(ranked, new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                if (a.millis != b.millis) {
+                    return a.millis > b.millis ? -1 : 1;
+                }
+                if (a.statements != b.statements) {
+                    return a.statements > b.statements ? -1 : 1;
+                }
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return ranked;
+    }
+
+    public JSONArray toJSON() throws JSONException {
+        JSONArray json = new JSONArray();
+        for (Candidate candidate : getCandidates()) {
+            json.put(candidate.toJSON());
+        }
+        return json;
+    }
+
+    /**
+     * Maps every alias, and every bare table name, to its schema-qualified table, in the
+     * order the tables appear.
+     */
+    private static Map<String, String> aliases(String query) {
+        Map<String, String> aliases = new LinkedHashMap<String, String>();
+        int from = query.startsWith("update ") ? 6 : query.indexOf(" from ");
+        if (from == -1) {
+            return aliases;
+        }
+        Matcher m = TABLE.matcher(query.substring(from));
+        while (m.find()) {
+            if (aliases.containsKey(m.group(1))) {
+                // alias.column rather than schema.table
+                continue;
+            }
+            String qualified = m.group(1) + "." + m.group(2);
+            aliases.put(m.group(2), qualified);
+            if (m.group(3) != null && !isKeyword(m.group(3))) {
+                aliases.put(m.group(3), qualified);
+            }
+        }
+        return aliases;
+    }
+
+    private static boolean isKeyword(String word) {
+        for (String keyword : KEYWORDS) {
+            if (keyword.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer kind(String operator) {
+        if (operator.equals("=") || operator.equals("in") || operator.equals("is")) {
+            return Integer.valueOf(EQUALITY);
+        }
+        if (operator.equals("like")) {
+            return Integer.valueOf(LIKE);
+        }
+        if (operator.startsWith("<") && !operator.equals("<>") || operator.startsWith(">")
+                || operator.equals("between")) {
+            return Integer.valueOf(RANGE);
+        }
+        // negations cannot use an index
+        return null;
+    }
+
+    /**
+     * The logged execution time, at least 1 so statements without one still count.
+     */
+    static long millis(String query) {
+        Matcher m = TIME.matcher(query);
+        if (m.find() && m.group(1).length() < 10) {
+            return Math.max(1, Long.parseLong(m.group(1)));
+        }
+        return 1;
+    }
+
+    /**
+     * One (table, predicate columns) combination.
+     */
+    public static final class Candidate implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String table;
+        private final Map<String, Integer> columns;
+        private int statements;
+        private long millis;
+
+        Candidate(String table, Map<String, Integer> columns) {
+            this.table = table;
+            this.columns = columns;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Columns of the suggested index, in index order.
+         */
+        public List<String> getIndexColumns() {
+            List<String> index = new ArrayList<String>(columnsOf(EQUALITY));
+            TreeSet<String> ranges = columnsOf(RANGE);
+            ranges.addAll(columnsOf(LIKE));
+            if (!ranges.isEmpty()) {
+                index.add(ranges.first());
+            }
+            return index;
+        }
+
+        String getName() {
+            return table + getIndexColumns();
+        }
+
+        private TreeSet<String> columnsOf(int kind) {
+            TreeSet<String> names = new TreeSet<String>();
+            for (Map.Entry<String, Integer> column : columns.entrySet()) {
+                if (column.getValue().intValue() == kind) {
+                    names.add(column.getKey());
+                }
+            }
+            return names;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("table", table);
+            json.put("columns", getIndexColumns());
+            for (int kind = EQUALITY; kind <= LIKE; kind++) {
+                json.put(KIND_NAMES[kind], columnsOf(kind));
+            }
+            json.put("statements", statements);
+            json.put("totalMillis", millis);
+            return json;
+        }
+    }
+}
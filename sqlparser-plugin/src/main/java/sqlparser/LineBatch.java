@@ -0,0 +1,26 @@
+package sqlparser;
+
+/**
+ * A run of consecutive log lines handed from the reader stage to the parse stage.
+ */
+public final class LineBatch {
+    final String[] lines;
+    final int[] kinds;
+    final String[] totals;
+    int size;
+
+    LineBatch(int capacity) {
+        this.lines = new String[capacity];
+        this.kinds = new int[capacity];
+        this.totals = new String[capacity];
+    }
+
+    boolean add(String line) {
+        lines[size++] = line;
+        return size == lines.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
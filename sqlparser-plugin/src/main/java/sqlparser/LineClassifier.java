@@ -0,0 +1,48 @@
+package sqlparser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognises the jdbcdslog marker lines in a container log.
+ *
+ * <p>Classification only looks at a single line, so it can run on any thread
+ * and on any batch of lines independently of the others.
+ */
+public final class LineClassifier {
+    public static final int NONE = 0;
+    public static final int CONNECTION = 1;
+    public static final int STATEMENT = 2;
+    public static final int RESULT = 4;
+    public static final int TOTAL = 8;
+
+    private final Pattern connectionPattern = Pattern.compile("jdbcds.*ConnectionLogger");
+    private final Pattern statementPattern = Pattern.compile("jdbcds.*StatementLogger");
+    private final Pattern resultPattern = Pattern.compile("jdbcds.*ResultSetLogger");
+    private final Pattern totalPattern = Pattern.compile("Total of (.*) rows read");
+
+    /**
+     * Classifies every line of the batch in place.
+     */
+    public void classify(LineBatch batch) {
+        for (int i = 0; i < batch.size; i++) {
+            String line = batch.lines[i];
+            int kind = NONE;
+
+            if (connectionPattern.matcher(line).find()) {
+                kind |= CONNECTION;
+            } else if (statementPattern.matcher(line).find()) {
+                kind |= STATEMENT;
+            } else if (resultPattern.matcher(line).find()) {
+                kind |= RESULT;
+            }
+
+            Matcher totalMatcher = totalPattern.matcher(line);
+            if (totalMatcher.find()) {
+                kind |= TOTAL;
+                batch.totals[i] = totalMatcher.group(1);
+            }
+            batch.kinds[i] = kind;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package sqlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+/**
+ * Reads lines straight off the log's bytes, keeping track of the byte offset reached so
+ * a later scan can pick up from there.
+ *
+ * <p>Lines end at <code>\n</code>, <code>\r</code> or <code>\r\n</code> and are decoded
+ * with the given charset, like {@link java.io.BufferedReader#readLine()} would.
+ * Optionally every byte consumed is fed to a digest.
+ */
+public final class LogLineReader implements SQLLogPipeline.LineSource {
+    private final InputStream in;
+    private final Charset charset;
+    private final MessageDigest digest;
+    private final byte[] buf = new byte[65536];
+    private int pos;
+    private int limit;
+    private int digested;
+    private byte[] line = new byte[256];
+
+    private long offset;
+    private long lineEnd;
+    private boolean skipLf;
+
+    /**
+     * @param offset byte offset the stream is positioned at
+     * @param digest digest to update with every byte consumed, may be null
+     */
+    public LogLineReader(InputStream in, Charset charset, long offset, MessageDigest digest) {
+        this.in = in;
+        this.charset = charset;
+        this.offset = offset;
+        this.lineEnd = offset;
+        this.digest = digest;
+    }
+
+    public String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return length == 0 ? null : decode(length);
+            }
+            byte b = buf[pos++];
+            offset++;
+            if (skipLf) {
+                skipLf = false;
+                if (b == '\n') {
+                    lineEnd = offset;
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                skipLf = b == '\r';
+                lineEnd = offset;
+                return decode(length);
+            }
+            if (length == line.length) {
+                byte[] longer = new byte[line.length * 2];
+                System.arraycopy(line, 0, longer, 0, length);
+                line = longer;
+            }
+            line[length++] = b;
+        }
+    }
+
+    /**
+     * Offset just past the last line terminator read. Bytes after it belong to a line that
+     * may still be incomplete.
+     */
+    public long getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Offset just past the last byte read.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Whether the bytes read so far end with a complete line.
+     */
+    public boolean endsWithLineTerminator() {
+        // after a lone \r the \n of a \r\n pair may still be on its way
+        return lineEnd == offset && !skipLf;
+    }
+
+    /**
+     * Reads and digests exactly the given number of bytes without returning lines.
+     *
+     * @return false if the stream ended first
+     */
+    public boolean skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            int n = (int) Math.min(bytes, limit - pos);
+            pos += n;
+            offset += n;
+            bytes -= n;
+        }
+        lineEnd = offset;
+        return true;
+    }
+
+    /**
+     * Digest of all bytes consumed so far, or null without a digest. Reading can go on
+     * afterwards.
+     */
+    public byte[] currentDigest() {
+        if (digest == null) {
+            return null;
+        }
+        updateDigest();
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(digest.getAlgorithm() + " cannot be cloned", e);
+        }
+    }
+
+    private void updateDigest() {
+        if (digest != null) {
+            digest.update(buf, digested, pos - digested);
+        }
+        digested = pos;
+    }
+
+    private boolean fill() throws IOException {
+        updateDigest();
+        int n = in.read(buf);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        digested = 0;
+        return true;
+    }
+
+    private String decode(int length) {
+        return new String(line, 0, length, charset);
+    }
+}
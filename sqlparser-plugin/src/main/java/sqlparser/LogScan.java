@@ -0,0 +1,515 @@
+package sqlparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONException;
+
+/**
+ * One scan of a container log into the files SQLParser archives: the queries report, the
+ * distinct result sets, the schema summary and the statements missing from it, the candidate indexes, the replay
+ * index, the connection workload and the statement timeline.
+ *
+ * <p>Given a checkpoint directory the scan is incremental. After a scan of a log that ends
+ * with a complete line, the byte offset reached, a SHA-1 of the bytes up to it, the
+ * assembler's in-flight connection and statement and the state of every output are saved
+ * there, along with the unfinished outputs. The next scan of the same log hashes the
+ * prefix again and, if it still matches, moves the saved outputs back, only parses what
+ * was appended since and appends to them. A log that was truncated or rewritten is parsed
+ * from the start.
+ */
+public final class LogScan {
+    public static final String REPORT_FILE = "sql_queries.json";
+    public static final String RESULT_SETS_FILE = "sql_resultsets.json";
+    public static final String SUMMARY_FILE = "sql_summary.json";
+    public static final String FAILURES_FILE = "sql_failures.json";
+    public static final String INDEXES_FILE = "sql_indexes.json";
+    public static final String REPLAY_FILE = "sql_replay.idx";
+    public static final String SAMPLE_FILE = "sql_sample.json";
+    public static final String CONNECTIONS_FILE = "sql_connections.json";
+    public static final String TIMELINE_FILE = "sql_timeline.json";
+
+    private static final String CHECKPOINT_FILE = "checkpoint.ser";
+    private static final String REPLAY_SCRATCH = "replay.part";
+
+    /**
+     * One lock per checkpoint directory, so scans of one log take turns with its checkpoint
+     * while scans of other logs go ahead.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Where the log is read from. It may be opened a second time if a checkpoint turns
+     * out not to match.
+     */
+    public interface LogSource {
+        InputStream open() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Everything needed to carry on where a scan stopped.
+     */
+    private static final class Checkpoint implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String charset;
+        long offset;
+        byte[] prefixDigest;
+        QueryLogAssembler.State assembler;
+        int reportCount;
+        String reportPending;
+        ResultSetStore.State resultSets;
+        ReplayIndexWriter.State replay;
+        SchemaCollector schema;
+        StatementSampler sampler;
+    }
+
+    private final SQLLogPipeline pipeline;
+    private final File outputDir;
+    private final File checkpointDir;
+    private final Charset charset;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private double sampleFraction = 1;
+    private long timelineMillis = StatementTimeline.DEFAULT_BUCKET_MILLIS;
+    private TimeZone zone = TimeZone.getDefault();
+    private ParseCache parseCache;
+
+    private SchemaCollector schema;
+    private StatementSampler sampler;
+    private ConnectionWorkload workload;
+    private StatementTimeline timeline;
+    private ResultSetStore resultSets;
+    private int records;
+    private long resumedOffset;
+    private int resumedRecords;
+    private boolean checkpointed;
+
+    /**
+     * @param outputDir directory the output files are written to
+     * @param checkpointDir directory the checkpoint is kept in, null to always parse the whole log
+     */
+    public LogScan(SQLLogPipeline pipeline, File outputDir, File checkpointDir, Charset charset) {
+        this.pipeline = pipeline;
+        this.outputDir = outputDir;
+        this.checkpointDir = checkpointDir;
+        this.charset = charset;
+    }
+
+    /**
+     * Only processes the given share of the statements in full, see {@link StatementSampler},
+     * and writes the estimates to {@link #SAMPLE_FILE}. 1, the default, processes every one.
+     */
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    /**
+     * Width of the {@link StatementTimeline} buckets written to {@link #TIMELINE_FILE}, one
+     * minute by default.
+     */
+    public void setTimelineMillis(long timelineMillis) {
+        this.timelineMillis = timelineMillis;
+    }
+
+    /**
+     * The zone the log timestamps were written in, the default zone unless set.
+     */
+    public void setTimeZone(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Takes what {@link QueryParser} extracts from statement shapes seen before from the
+     * given cache, and adds new shapes to it. Saving it is up to the caller.
+     */
+    public void setParseCache(ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * Scans the log and writes the finished output files. May be called once.
+     */
+    public void run(LogSource log) throws IOException, InterruptedException {
+        Checkpoint checkpoint = checkpointDir == null ? null : takeCheckpoint();
+        InputStream in = log.open();
+        try {
+            // the prefix is only hashed if there is a checkpoint to write
+            LogLineReader reader = new LogLineReader(in, charset, 0, checkpointDir == null ? null : sha1());
+            if (checkpoint != null && !(reader.skip(checkpoint.offset)
+                    && Arrays.equals(reader.currentDigest(), checkpoint.prefixDigest))) {
+                // the log is not the one the checkpoint was taken of
+                checkpoint = null;
+                in.close();
+                in = log.open();
+                reader = new LogLineReader(in, charset, 0, sha1());
+            }
+            scan(reader, checkpoint);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Scans a log file.
+     */
+    public void run(final File log) throws IOException, InterruptedException {
+        run(new LogSource() {
+            public InputStream open() throws IOException {
+                return new FileInputStream(log);
+            }
+        });
+    }
+
+    private void scan(LogLineReader reader, Checkpoint checkpoint) throws IOException, InterruptedException {
+        File report = new File(outputDir, REPORT_FILE);
+        File resultSetsFile = new File(outputDir, RESULT_SETS_FILE);
+        File replayScratch = new File(outputDir, REPLAY_SCRATCH);
+        QueryReportWriter reportWriter;
+        QueryLogAssembler.State assembler;
+        ReplayIndexWriter replay;
+        if (checkpoint == null) {
+            assembler = new QueryLogAssembler.State(timelineMillis, zone);
+            reportWriter = new QueryReportWriter(new FileWriter(report));
+            schema = new SchemaCollector(new QueryParser());
+            resultSets = new ResultSetStore(new FileWriter(resultSetsFile));
+            replay = new ReplayIndexWriter(replayScratch);
+            sampler = sampleFraction < 1 ? new StatementSampler(sampleFraction) : null;
+        } else {
+            resumedOffset = checkpoint.offset;
+            resumedRecords = checkpoint.reportCount;
+            assembler = checkpoint.assembler;
+            reportWriter = new QueryReportWriter(new FileWriter(report, true), checkpoint.reportCount,
+                    checkpoint.reportPending);
+            schema = checkpoint.schema;
+            resultSets = new ResultSetStore(new FileWriter(resultSetsFile, true), checkpoint.resultSets);
+            replay = new ReplayIndexWriter(replayScratch, checkpoint.replay);
+            sampler = checkpoint.sampler;
+        }
+
+        schema.getParser().setCache(parseCache);
+
+        boolean done = false;
+        try {
+            pipeline.setFilter(sampler);
+            pipeline.addListener(schema);
+            pipeline.addListener(replay);
+            pipeline.addListener(resultSets);
+            pipeline.run(reader, reportWriter, assembler, metrics);
+            records = reportWriter.getCount();
+            workload = assembler.getWorkload();
+            timeline = assembler.getTimeline();
+
+            if (checkpointDir != null && reader.endsWithLineTerminator()) {
+                resultSets.flush();
+                replay.flush();
+                Checkpoint next = new Checkpoint();
+                next.charset = charset.name();
+                next.offset = reader.getOffset();
+                next.prefixDigest = reader.currentDigest();
+                next.assembler = assembler;
+                next.reportCount = reportWriter.getCount();
+                next.reportPending = reportWriter.getPending();
+                next.resultSets = resultSets.getState();
+                next.replay = replay.getState();
+                next.schema = schema;
+                next.sampler = sampler;
+                try {
+                    saveCheckpoint(next, report, resultSetsFile, replayScratch);
+                    checkpointed = true;
+                } catch (IOException e) {
+                    // only the next scan gets slower
+                    deleteCheckpoint();
+                }
+            }
+
+            if (sampler != null) {
+                reportWriter.setSampleFraction(sampler.getFraction());
+            }
+            reportWriter.close();
+            resultSets.close();
+            replay.writeTo(new File(outputDir, REPLAY_FILE));
+            writeJSON(SUMMARY_FILE, schema.toJSON());
+            writeJSON(FAILURES_FILE, schema.failuresToJSON());
+            writeJSON(INDEXES_FILE, schema.indexesToJSON());
+            if (sampler != null) {
+                writeJSON(SAMPLE_FILE, sampler.toJSON().toString(4));
+            }
+            writeJSON(CONNECTIONS_FILE, workload.toJSON().toString(4));
+            writeJSON(TIMELINE_FILE, timeline.toJSON().toString());
+            done = true;
+        } catch (JSONException e) {
+            IOException failure = new IOException("Could not write the JSON outputs");
+            failure.initCause(e);
+            throw failure;
+        } finally {
+            if (!done) {
+                reportWriter.close();
+                resultSets.close();
+                replay.discard();
+            }
+        }
+    }
+
+    private void writeJSON(String name, String json) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(outputDir, name)), "UTF-8");
+        try {
+            out.write(json);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * What the scan found, one line per finding, suitable for the build log. The phase
+     * timings are in {@link ScanMetrics#summary()}.
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<String>();
+        if (resumedOffset > 0) {
+            lines.add("Resumed at byte " + resumedOffset + " of the log, " + resumedRecords
+                    + " statements carried over from the last scan");
+        }
+        if (sampler != null) {
+            lines.add(String.format("Sampled %d of %d statements (%.1f%%), %d distinct statement fingerprints",
+                    sampler.getSampled(), sampler.getStatements(), sampler.getFraction() * 100,
+                    sampler.getFingerprints()));
+        }
+        lines.add(workload.getConnections() + " connections opened");
+        for (String url : workload.getChurning()) {
+            lines.add("WARNING: connections to " + url + " run few statements each, check that the pool reuses them");
+        }
+        lines.add("Timeline of " + timeline.getBuckets() + " buckets of " + timeline.getBucketMillis() / 1000.0 + " s");
+        lines.add(resultSets.getRecords() + " result sets, " + resultSets.getDistinct() + " distinct");
+        if (schema.getFailed() > 0) {
+            lines.add(schema.getFailed() + " statements could not be added to the schema summary, by reason: "
+                    + schema.getFailures());
+        }
+        return lines;
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    public SchemaCollector getSchema() {
+        return schema;
+    }
+
+    /**
+     * The sampler of a sampled scan, otherwise null.
+     */
+    public StatementSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * The connections opened in the whole log, checkpointed part included.
+     */
+    public ConnectionWorkload getWorkload() {
+        return workload;
+    }
+
+    /**
+     * The statements per time bucket in the whole log, checkpointed part included.
+     */
+    public StatementTimeline getTimeline() {
+        return timeline;
+    }
+
+    public ResultSetStore getResultSets() {
+        return resultSets;
+    }
+
+    /**
+     * Number of records in the report, including those carried over from a checkpoint.
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Byte offset the scan picked up from, 0 if the whole log was parsed.
+     */
+    public long getResumedOffset() {
+        return resumedOffset;
+    }
+
+    /**
+     * Number of records carried over from the checkpoint.
+     */
+    public int getResumedRecords() {
+        return resumedRecords;
+    }
+
+    /**
+     * Whether a checkpoint was saved for the next scan.
+     */
+    public boolean isCheckpointed() {
+        return checkpointed;
+    }
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public File getReport() {
+        return new File(outputDir, REPORT_FILE);
+    }
+
+    /**
+     * Reads the checkpoint and moves the unfinished outputs saved with it into the output
+     * directory, where the scan appends to them. The checkpoint file is deleted first, so
+     * a checkpoint is resumed at most once and a scan that fails halfway leaves none behind.
+     */
+    private Checkpoint takeCheckpoint() {
+        synchronized (lock()) {
+            File file = new File(checkpointDir, CHECKPOINT_FILE);
+            if (!file.isFile() || !new File(checkpointDir, REPORT_FILE).isFile()
+                    || !new File(checkpointDir, RESULT_SETS_FILE).isFile()
+                    || !new File(checkpointDir, REPLAY_SCRATCH).isFile()) {
+                return null;
+            }
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                Checkpoint checkpoint;
+                try {
+                    checkpoint = (Checkpoint) in.readObject();
+                } finally {
+                    in.close();
+                }
+                double fraction = checkpoint.sampler == null ? 1 : checkpoint.sampler.getFraction();
+                if (!charset.name().equals(checkpoint.charset) || fraction != sampleFraction
+                        || checkpoint.assembler.getTimeline().getRequestedMillis() != timelineMillis
+                        || !checkpoint.assembler.getZone().getID().equals(zone.getID())) {
+                    return null;
+                }
+                if (!file.delete()) {
+                    return null;
+                }
+                move(new File(checkpointDir, REPORT_FILE), new File(outputDir, REPORT_FILE));
+                move(new File(checkpointDir, RESULT_SETS_FILE), new File(outputDir, RESULT_SETS_FILE));
+                move(new File(checkpointDir, REPLAY_SCRATCH), new File(outputDir, REPLAY_SCRATCH));
+                return checkpoint;
+            } catch (IOException e) {
+                // written by an incompatible version or damaged, start over
+                return null;
+            } catch (ClassNotFoundException e) {
+                return null;
+            } catch (ClassCastException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Copies the unfinished outputs first and writes the checkpoint file last, so a
+     * checkpoint file that exists always matches the files next to it. This is the only
+     * copy of the outputs an incremental scan makes.
+     */
+    private void saveCheckpoint(Checkpoint checkpoint, File report, File resultSetsFile, File replayScratch)
+            throws IOException {
+        synchronized (lock()) {
+            File file = new File(checkpointDir, CHECKPOINT_FILE);
+            file.delete();
+            if (!checkpointDir.isDirectory() && !checkpointDir.mkdirs()) {
+                throw new IOException("Could not create " + checkpointDir);
+            }
+            copy(report, new File(checkpointDir, REPORT_FILE));
+            copy(resultSetsFile, new File(checkpointDir, RESULT_SETS_FILE));
+            copy(replayScratch, new File(checkpointDir, REPLAY_SCRATCH));
+
+            File tmp = new File(checkpointDir, CHECKPOINT_FILE + ".tmp");
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeObject(checkpoint);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    private Object lock() {
+        String path = checkpointDir.getAbsolutePath();
+        Object lock = LOCKS.get(path);
+        if (lock == null) {
+            Object created = new Object();
+            lock = LOCKS.putIfAbsent(path, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    private void deleteCheckpoint() {
+        synchronized (lock()) {
+            new File(checkpointDir, CHECKPOINT_FILE).delete();
+        }
+    }
+
+    /**
+     * Renames the file, or copies it if it is on another file system.
+     */
+    private static void move(File from, File to) throws IOException {
+        to.delete();
+        if (!from.renameTo(to)) {
+            copy(from, to);
+            from.delete();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[65536];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package sqlparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Runs a {@link LogScan} on a background thread while the log is still being written,
+ * so that once the build is done only the last records are left to parse.
+ *
+ * <p>At the end of the log the scan waits for more to be appended instead of finishing.
+ * When the path names another file by then, the log is taken to have been rotated: the
+ * old file has been read to its end, and the scan carries on at the start of the new
+ * one, with any record spanning the two still assembled correctly. Until a new file
+ * appears, a log moved away is read on. A log truncated in place, as copytruncate does,
+ * is read again from its start. The pipeline's
+ * bounded queues limit how far the scan can get ahead of its output.
+ */
+public final class LogTailer {
+    /** How much of the start of the log is kept to recognize it after a rotation. */
+    private static final int HEAD_BYTES = 4096;
+
+    private final File log;
+    private final LogScan scan;
+    private final long pollMillis;
+    private final Thread thread;
+
+    private volatile boolean stopping;
+    private volatile Throwable failure;
+    private volatile int rotations;
+    private volatile long bytesRead;
+
+    /**
+     * @param pollMillis how long to wait at the end of the log before looking again
+     */
+    public LogTailer(File log, LogScan scan, long pollMillis) {
+        this.log = log;
+        this.scan = scan;
+        this.pollMillis = pollMillis;
+        this.thread = new Thread("SQLParser tail " + log.getName()) {
+            @Override
+            public void run() {
+                try {
+                    LogTailer.this.scan.run(new LogScan.LogSource() {
+                        public InputStream open() {
+                            return new Following();
+                        }
+                    });
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+        };
+        this.thread.setDaemon(true);
+    }
+
+    public File getLog() {
+        return log;
+    }
+
+    public LogScan getScan() {
+        return scan;
+    }
+
+    /**
+     * Number of times the log was found rotated.
+     */
+    public int getRotations() {
+        return rotations;
+    }
+
+    /**
+     * Bytes read from the log so far, across rotations.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Lets the scan finish once it has read everything written to the log so far.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Reads what is left of the log, waits for the scan to write its output files and
+     * returns it.
+     */
+    public LogScan finish() throws IOException, InterruptedException {
+        stop();
+        thread.join();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure != null) {
+            IOException e = new IOException("Tailing " + log + " failed");
+            e.initCause(failure);
+            throw e;
+        }
+        return scan;
+    }
+
+    /**
+     * Abandons the scan without waiting for the rest of the log.
+     */
+    public void discard() throws InterruptedException {
+        stop();
+        thread.interrupt();
+        thread.join();
+    }
+
+    /**
+     * The log as one stream across rotations, which only ends once the tailer is stopped.
+     */
+    private final class Following extends InputStream {
+        private FileInputStream in;
+        private long position;
+        /** The first bytes of the file being read, to tell it from a new file of the same length. */
+        private final byte[] head = new byte[HEAD_BYTES];
+        private int headLength;
+        /** Whether the end of the open file was reached before the last wait. */
+        private boolean waited;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                // Checked before reading: anything written before stop() was called is still read.
+                boolean last = stopping;
+                if (in == null && log.isFile()) {
+                    in = new FileInputStream(log);
+                    position = 0;
+                    headLength = 0;
+                    waited = false;
+                }
+                if (in != null) {
+                    // What was written while waiting is only read once the file is known to be the log still.
+                    if (waited) {
+                        waited = false;
+                        if (!stillReading()) {
+                            rotated();
+                            continue;
+                        }
+                    }
+                    int n = in.read(b, off, len);
+                    if (n > 0) {
+                        if (headLength < head.length) {
+                            int copied = Math.min(n, head.length - headLength);
+                            System.arraycopy(b, off, head, headLength, copied);
+                            headLength += copied;
+                        }
+                        position += n;
+                        bytesRead += n;
+                        return n;
+                    }
+                    if (!stillReading()) {
+                        rotated();
+                        continue;
+                    }
+                }
+                if (last) {
+                    return -1;
+                }
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Stopped tailing " + log);
+                }
+                waited = true;
+            }
+        }
+
+        private void rotated() throws IOException {
+            in.close();
+            in = null;
+            rotations++;
+        }
+
+        /**
+         * Whether the file that has been read to its end is still the log. There are no
+         * file keys before Java 7, so the file at the path is compared with the open one
+         * instead. While the path names no file the log was moved away and not created
+         * again yet, and whatever is still written to the open file is read. Grown since
+         * the read, the open file is read on unless its first bytes changed, as they do
+         * when it was truncated in place and written past the offset before the poll. At
+         * the end of the open file, a file at the path that is shorter than what was read
+         * was truncated in place or replaced, and is read from the start either way. Longer
+         * than the open file, it was created in its place, since the length of the open
+         * file is taken first and a file only grows. Of the same length, it is reopened and
+         * its first bytes are compared.
+         */
+        private boolean stillReading() throws IOException {
+            FileChannel open = in.getChannel();
+            long openLength = open.size();
+            if (openLength > position) {
+                return startsWithHead(open);
+            }
+            long length = log.length();
+            if (length == 0 && !log.exists()) {
+                return true;
+            }
+            if (length < position || length > openLength) {
+                return false;
+            }
+            FileInputStream reopened;
+            try {
+                reopened = new FileInputStream(log);
+            } catch (FileNotFoundException e) {
+                // moved away since the length was taken
+                return true;
+            }
+            try {
+                return startsWithHead(reopened.getChannel());
+            } finally {
+                reopened.close();
+            }
+        }
+
+        /**
+         * Whether the file begins with the bytes the open file began with when they were read.
+         */
+        private boolean startsWithHead(FileChannel file) throws IOException {
+            ByteBuffer other = ByteBuffer.allocate(headLength);
+            while (other.hasRemaining()) {
+                if (file.read(other, other.position()) == -1) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < headLength; i++) {
+                if (other.get(i) != head[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package sqlparser;
+
+import java.util.TimeZone;
+
+/**
+ * Reads the java.util.logging timestamp a container log line starts with, such as
+ * "Jun 06, 2014 12:17:04 PM", without allocating anything.
+ *
+ * <p>Only that fixed format is understood: an English month name or its abbreviation, a
+ * one or two digit day and hour, a four digit year and AM or PM. Lines that start
+ * differently, like the payload lines, are rejected after a character or two. The time is
+ * local to the given zone, as SimpleFormatter writes it.
+ */
+public final class LogTimestamp {
+    private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct",
+            "nov", "dec" };
+    private static final long HOUR = 3600000L;
+    /** Zones change their offset on a quarter hour of local time, Chatham on :45 for one. */
+    private static final long QUARTER_HOUR = HOUR / 4;
+
+    private final TimeZone zone;
+    private long cachedQuarter = Long.MIN_VALUE;
+    private long cachedOffset;
+
+    public LogTimestamp(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Milliseconds since the epoch of the timestamp at the start of the line, -1 if it
+     * does not start with one.
+     */
+    public long parse(CharSequence line) {
+        int n = line.length();
+        if (n < 20) {
+            return -1;
+        }
+        int month = month(line);
+        if (month < 0) {
+            return -1;
+        }
+        int i = 3;
+        while (i < n && isLetter(line.charAt(i))) {
+            i++;
+        }
+        if (i >= n || line.charAt(i++) != ' ') {
+            return -1;
+        }
+
+        long fields = digits(line, i, 2);
+        int day = (int) fields;
+        if (fields < 0 || day < 1 || day > 31) {
+            return -1;
+        }
+        i += (int) (fields >>> 32);
+        if (!expect(line, i, ", ")) {
+            return -1;
+        }
+        i += 2;
+        fields = digits(line, i, 4);
+        int year = (int) fields;
+        if (fields >>> 32 != 4 || !expect(line, i + 4, " ")) {
+            return -1;
+        }
+        i += 5;
+        fields = digits(line, i, 2);
+        int hour = (int) fields;
+        if (fields < 0 || hour < 1 || hour > 12) {
+            return -1;
+        }
+        i += (int) (fields >>> 32);
+        if (!expect(line, i, ":")) {
+            return -1;
+        }
+        fields = digits(line, i + 1, 2);
+        int minute = (int) fields;
+        if (fields >>> 32 != 2 || minute > 59 || !expect(line, i + 3, ":")) {
+            return -1;
+        }
+        fields = digits(line, i + 4, 2);
+        int second = (int) fields;
+        if (fields >>> 32 != 2 || second > 59 || !expect(line, i + 6, " ")) {
+            return -1;
+        }
+        i += 7;
+        if (i + 2 > n || (line.charAt(i + 1) | 0x20) != 'm') {
+            return -1;
+        }
+        char half = (char) (line.charAt(i) | 0x20);
+        if (half == 'p') {
+            hour = hour % 12 + 12;
+        } else if (half == 'a') {
+            hour = hour % 12;
+        } else {
+            return -1;
+        }
+
+        long local = days(year, month + 1, day) * 24 * HOUR + hour * HOUR + minute * 60000L + second * 1000L;
+        return local - offset(local);
+    }
+
+    /**
+     * Offset of the zone at the given local time. It only changes on a quarter hour, so it
+     * is looked up once per quarter hour of log.
+     */
+    private long offset(long local) {
+        long quarter = local - ((local % QUARTER_HOUR) + QUARTER_HOUR) % QUARTER_HOUR;
+        if (quarter != cachedQuarter) {
+            // the offset at local - raw offset is right unless a transition lies in between
+            cachedOffset = zone.getOffset(local - zone.getOffset(local - zone.getRawOffset()));
+            cachedQuarter = quarter;
+        }
+        return cachedOffset;
+    }
+
+    private static int month(CharSequence line) {
+        char a = (char) (line.charAt(0) | 0x20);
+        char b = (char) (line.charAt(1) | 0x20);
+        char c = (char) (line.charAt(2) | 0x20);
+        for (int m = 0; m < MONTHS.length; m++) {
+            String name = MONTHS[m];
+            if (name.charAt(0) == a && name.charAt(1) == b && name.charAt(2) == c) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads one to max digits at the given index. The value is in the low 32 bits and the
+     * number of digits read in the high ones; negative if there is no digit.
+     */
+    private static long digits(CharSequence line, int i, int max) {
+        int value = 0;
+        int count = 0;
+        while (count < max && i + count < line.length()) {
+            char c = line.charAt(i + count);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            count++;
+        }
+        return count == 0 ? -1 : ((long) count << 32) | value;
+    }
+
+    private static boolean expect(CharSequence line, int i, String s) {
+        if (i + s.length() > line.length()) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (line.charAt(i + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c | 0x20) >= 'a' && (c | 0x20) <= 'z';
+    }
+
+    /**
+     * Days from 1970-01-01 to the given date of the proleptic Gregorian calendar.
+     */
+    private static long days(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
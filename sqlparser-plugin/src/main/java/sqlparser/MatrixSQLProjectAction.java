@@ -0,0 +1,77 @@
+package sqlparser;
+
+import hudson.Extension;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixProject;
+import hudson.model.Action;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the per-configuration SQL report summaries of the latest matrix build on the
+ * project page.
+ *
+ * <p>The summaries come from the {@link MatrixSQLReportAction} of the last completed build
+ * only, and are cached per project, so rendering the page never touches the configurations
+ * or walks the build history. The cache entry is dropped when the next matrix build of the
+ * project completes.
+ */
+public class MatrixSQLProjectAction implements Action {
+    private static final CompletedBuildCache<MatrixProject, List<MatrixSQLReportAction.Summary>> CACHE =
+            new CompletedBuildCache<MatrixProject, List<MatrixSQLReportAction.Summary>>(
+                    new CompletedBuildCache.Loader<MatrixProject, List<MatrixSQLReportAction.Summary>>() {
+                        public List<MatrixSQLReportAction.Summary> load(MatrixProject project) {
+                            MatrixBuild last = project.getLastCompletedBuild();
+                            MatrixSQLReportAction action = last == null ? null
+                                    : last.getAction(MatrixSQLReportAction.class);
+                            if (action == null) {
+                                return Collections.emptyList();
+                            }
+                            return action.getSummaries();
+                        }
+                    });
+
+    private final MatrixProject project;
+
+    public MatrixSQLProjectAction(MatrixProject project) {
+        this.project = project;
+    }
+
+    public MatrixProject getProject() {
+        return project;
+    }
+
+    public String getIconFileName() {
+        return getSummaries().isEmpty() ? null : "graph.gif";
+    }
+
+    public String getDisplayName() {
+        return "Matrix SQL Report";
+    }
+
+    public String getUrlName() {
+        return "matrixSqlReport";
+    }
+
+    public List<MatrixSQLReportAction.Summary> getSummaries() {
+        return CACHE.get(project);
+    }
+
+    /**
+     * Invalidates the cached summaries of a project once one of its matrix builds is done.
+     */
+    @Extension
+    public static class Invalidator extends RunListener<MatrixBuild> {
+        public Invalidator() {
+            super(MatrixBuild.class);
+        }
+
+        @Override
+        public void onCompleted(MatrixBuild build, TaskListener listener) {
+            CACHE.completed(build.getProject());
+        }
+    }
+}
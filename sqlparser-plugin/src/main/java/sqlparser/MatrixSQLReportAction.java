@@ -0,0 +1,98 @@
+package sqlparser;
+
+import hudson.model.Action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-configuration SQL report summaries of a matrix build, gathered once when the
+ * matrix build completes.
+ */
+public class MatrixSQLReportAction implements Action {
+    private final List<Summary> summaries;
+
+    public MatrixSQLReportAction(List<Summary> summaries) {
+        this.summaries = new ArrayList<Summary>(summaries);
+    }
+
+    public List<Summary> getSummaries() {
+        return Collections.unmodifiableList(summaries);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Matrix SQL Report";
+    }
+
+    public String getUrlName() {
+        return "matrixSqlReport";
+    }
+
+    /**
+     * What the SQL report step of one configuration run recorded: the parse timings and
+     * what its outputs add up to.
+     */
+    public static final class Summary {
+        private final String combination;
+        private final int buildNumber;
+        private final int statements;
+        private final long wallMillis;
+        private final double statementsPerSecond;
+        private final boolean live;
+        private final ReportSummary report;
+
+        /**
+         * @param report what the run's outputs add up to, null if they could not be read
+         */
+        public Summary(String combination, int buildNumber, SQLMetricsAction metrics, ReportSummary report) {
+            this.combination = combination;
+            this.buildNumber = buildNumber;
+            this.statements = metrics.getStatements();
+            this.wallMillis = metrics.getWallMillis();
+            this.statementsPerSecond = metrics.getStatementsPerSecond();
+            this.live = metrics.isLive();
+            this.report = report;
+        }
+
+        public String getCombination() {
+            return combination;
+        }
+
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public double getStatementsPerSecond() {
+            return statementsPerSecond;
+        }
+
+        /**
+         * Whether the log was parsed while the run was going on, so the parse time is
+         * mostly the time the run took to write it.
+         */
+        public boolean isLive() {
+            return live;
+        }
+
+        /**
+         * The statements, failures, tables and top statements of the run's outputs, null if
+         * they could not be read when the matrix build completed.
+         */
+        public ReportSummary getReport() {
+            return report;
+        }
+    }
+}
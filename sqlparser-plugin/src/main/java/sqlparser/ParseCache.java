@@ -0,0 +1,449 @@
+package sqlparser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What {@link QueryParser} extracted from each statement shape, kept from one build of a
+ * project to the next so a shape is only parsed the first time it is logged.
+ *
+ * <p>A shape is the lower-cased statement with the digits of its literals masked, see
+ * {@link StatementFingerprint#digitsMasked(String)}, and is stored by two independent
+ * 64-bit hashes and its length, all of which have to match before an entry is taken. When
+ * a shape is first parsed, it is parsed a second time with those digits changed; if that
+ * extracts something else, the digits matter and the shape is only remembered as not
+ * cacheable.
+ *
+ * <p>The file is memory-mapped when loaded and entries are only decoded when their shape
+ * comes up. Every save counts as a build: entries not used for {@link #getMaxUnusedBuilds()}
+ * builds are dropped, and beyond {@link #getMaxEntries()} the least recently used ones.
+ * No more than that many shapes are used or added during a build either; once the cache
+ * is full, new shapes are parsed without being remembered. A file written by another
+ * {@link #FORMAT}, which covers how shapes are keyed, or {@link QueryParser#EXTRACTION_VERSION}
+ * is ignored. Saving replaces the file, which fails while a mapping of it is still open on
+ * Windows; the cache is then simply not updated.
+ */
+public final class ParseCache {
+    public static final int FORMAT = 3;
+    public static final int DEFAULT_MAX_UNUSED_BUILDS = 20;
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private static final int MAGIC = 0x53515043;
+    private static final int HEADER = 20;
+
+    private final File file;
+    private final int maxUnusedBuilds;
+    private final int maxEntries;
+    private ByteBuffer mapped;
+    private int generation;
+    /**
+     * Position in the mapped file of each entry, at its last used generation.
+     */
+    private final Map<Key, Integer> stored = new HashMap<Key, Integer>();
+    /**
+     * Entries used or added since the file was loaded, at most {@link #maxEntries}.
+     */
+    private final Map<Key, QueryParser.Extraction> used = new HashMap<Key, QueryParser.Extraction>();
+    private int lookups;
+    private int hits;
+    private int added;
+    private int uncacheable;
+
+    private ParseCache(File file, int maxUnusedBuilds, int maxEntries) {
+        this.file = file;
+        this.maxUnusedBuilds = maxUnusedBuilds;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Maps the cache file, or starts an empty cache if there is none or it cannot be used.
+     */
+    public static ParseCache load(File file, int maxUnusedBuilds, int maxEntries) throws IOException {
+        ParseCache cache = new ParseCache(file, maxUnusedBuilds, maxEntries);
+        synchronized (ParseCache.class) {
+            if (!file.isFile() || file.length() < HEADER) {
+                return cache;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            ByteBuffer buf;
+            try {
+                // the mapping stays valid once the file is closed
+                buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            try {
+                if (buf.getInt() != MAGIC || buf.getInt() != FORMAT || buf.getInt() != QueryParser.EXTRACTION_VERSION) {
+                    return cache;
+                }
+                int generation = buf.getInt();
+                int count = buf.getInt();
+                Map<Key, Integer> stored = new HashMap<Key, Integer>();
+                for (int i = 0; i < count; i++) {
+                    Key key = new Key(buf.getLong(), buf.getLong(), buf.getInt());
+                    stored.put(key, Integer.valueOf(buf.position()));
+                    buf.getInt();
+                    int length = buf.getInt();
+                    if (length < 0) {
+                        return cache;
+                    }
+                    buf.position(buf.position() + length);
+                }
+                cache.mapped = buf;
+                cache.generation = generation;
+                cache.stored.putAll(stored);
+            } catch (BufferUnderflowException e) {
+                // truncated, start over
+            } catch (IllegalArgumentException e) {
+                // an entry length points past the end
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * The hash a shape is stored by.
+     */
+    static long hash(String shape) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < shape.length(); i++) {
+            hash = (hash ^ shape.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A second 64-bit hash, independent of {@link #hash(String)}, with which shapes of the
+     * same hash are told apart.
+     */
+    static long check(String shape) {
+        long h = shape.length();
+        for (int i = 0; i < shape.length(); i++) {
+            h = (h + shape.charAt(i)) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /**
+     * The extraction of a shape, {@link QueryParser#UNCACHEABLE}, or null if the shape is new.
+     */
+    QueryParser.Extraction get(String shape) {
+        lookups++;
+        Key k = new Key(hash(shape), check(shape), shape.length());
+        QueryParser.Extraction extraction = used.get(k);
+        if (extraction == null) {
+            Integer position = stored.get(k);
+            if (position == null) {
+                return null;
+            }
+            extraction = decode(position.intValue());
+            if (extraction == null) {
+                return null;
+            }
+            if (!isFull()) {
+                // otherwise decoded again next time
+                used.put(k, extraction);
+            }
+        }
+        if (extraction == QueryParser.UNCACHEABLE) {
+            uncacheable++;
+        } else {
+            hits++;
+        }
+        return extraction;
+    }
+
+    /**
+     * Adds a shape parsed for the first time. Only called while the cache is not full.
+     */
+    void put(String shape, QueryParser.Extraction extraction) {
+        used.put(new Key(hash(shape), check(shape), shape.length()), extraction);
+        added++;
+        if (extraction == QueryParser.UNCACHEABLE) {
+            uncacheable++;
+        }
+    }
+
+    /**
+     * Whether as many shapes have been used or added since loading as the file may hold,
+     * so new shapes are no longer added.
+     */
+    public boolean isFull() {
+        return used.size() >= maxEntries;
+    }
+
+    /**
+     * Statements whose extraction came from the cache.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Statements looked up in the cache.
+     */
+    public int getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Shapes parsed for the first time and added, cacheable or not. Each was parsed twice
+     * to find out whether it can be cached.
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * Statements of shapes that cannot be cached, which were parsed in full.
+     */
+    public int getUncacheable() {
+        return uncacheable;
+    }
+
+    /**
+     * Whether the cache saved more parsing than it cost: the statements taken from it
+     * outnumber the new shapes, which were parsed a second time to check them.
+     */
+    public boolean isPayingOff() {
+        return hits >= added;
+    }
+
+    /**
+     * Shapes known, used or not.
+     */
+    public int getShapes() {
+        int shapes = stored.size();
+        for (Key key : used.keySet()) {
+            if (!stored.containsKey(key)) {
+                shapes++;
+            }
+        }
+        return shapes;
+    }
+
+    public int getMaxUnusedBuilds() {
+        return maxUnusedBuilds;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Writes the shapes used in this build along with those used recently enough, and
+     * replaces the file with it.
+     */
+    public void save() throws IOException {
+        int next = generation + 1;
+        List<long[]> entries = new ArrayList<long[]>();
+        List<Key> keys = new ArrayList<Key>();
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        for (Map.Entry<Key, QueryParser.Extraction> entry : used.entrySet()) {
+            byte[] body = encode(entry.getValue());
+            if (body != null) {
+                entries.add(new long[] { next, bodies.size() });
+                keys.add(entry.getKey());
+                bodies.add(body);
+            }
+        }
+        for (Map.Entry<Key, Integer> entry : stored.entrySet()) {
+            if (used.containsKey(entry.getKey())) {
+                continue;
+            }
+            ByteBuffer buf = mapped.duplicate();
+            buf.position(entry.getValue().intValue());
+            int lastUsed = buf.getInt();
+            if (next - lastUsed > maxUnusedBuilds) {
+                continue;
+            }
+            byte[] body = new byte[buf.getInt()];
+            buf.get(body);
+            entries.add(new long[] { lastUsed, bodies.size() });
+            keys.add(entry.getKey());
+            bodies.add(body);
+        }
+        if (entries.size() > maxEntries) {
+            Collections.sort(entries, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return a[0] > b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+                }
+            });
+            entries = entries.subList(0, maxEntries);
+        }
+
+        synchronized (ParseCache.class) {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(QueryParser.EXTRACTION_VERSION);
+                out.writeInt(next);
+                out.writeInt(entries.size());
+                for (long[] entry : entries) {
+                    Key key = keys.get((int) entry[1]);
+                    byte[] body = bodies.get((int) entry[1]);
+                    out.writeLong(key.hash);
+                    out.writeLong(key.check);
+                    out.writeInt(key.length);
+                    out.writeInt((int) entry[0]);
+                    out.writeInt(body.length);
+                    out.write(body);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                tmp.delete();
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    /**
+     * The entry at the given position in the mapped file, null if it cannot be read.
+     */
+    private QueryParser.Extraction decode(int position) {
+        ByteBuffer buf = mapped.duplicate();
+        buf.position(position + 4);
+        byte[] body = new byte[buf.getInt()];
+        buf.get(body);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        try {
+            if (!in.readBoolean()) {
+                return QueryParser.UNCACHEABLE;
+            }
+            QueryParser.Extraction extraction = new QueryParser.Extraction();
+            int tables = in.readInt();
+            for (int i = 0; i < tables; i++) {
+                String schema = in.readUTF();
+                String table = in.readUTF();
+                extraction.add(schema, table, readStrings(in));
+            }
+            if (in.readBoolean()) {
+                extraction.lastSchema = in.readUTF();
+                extraction.lastTable = in.readUTF();
+            }
+            Map<String, Map<String, Integer>> predicates = new TreeMap<String, Map<String, Integer>>();
+            int predicateTables = in.readInt();
+            for (int i = 0; i < predicateTables; i++) {
+                String table = in.readUTF();
+                Map<String, Integer> columns = new TreeMap<String, Integer>();
+                int count = in.readInt();
+                for (int c = 0; c < count; c++) {
+                    String column = in.readUTF();
+                    columns.put(column, Integer.valueOf(in.readByte()));
+                }
+                predicates.put(table, columns);
+            }
+            extraction.predicates = predicates;
+            return extraction;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The entry body of an extraction, null if it cannot be stored.
+     */
+    private static byte[] encode(QueryParser.Extraction extraction) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeBoolean(extraction != QueryParser.UNCACHEABLE);
+            if (extraction == QueryParser.UNCACHEABLE) {
+                return bytes.toByteArray();
+            }
+            out.writeInt(extraction.tables.size());
+            for (int i = 0; i < extraction.tables.size(); i++) {
+                out.writeUTF(extraction.schemas.get(i));
+                out.writeUTF(extraction.tables.get(i));
+                writeStrings(out, extraction.columns.get(i));
+            }
+            out.writeBoolean(extraction.lastSchema != null);
+            if (extraction.lastSchema != null) {
+                out.writeUTF(extraction.lastSchema);
+                out.writeUTF(extraction.lastTable);
+            }
+            out.writeInt(extraction.predicates.size());
+            for (Map.Entry<String, Map<String, Integer>> table : extraction.predicates.entrySet()) {
+                out.writeUTF(table.getKey());
+                out.writeInt(table.getValue().size());
+                for (Map.Entry<String, Integer> column : table.getValue().entrySet()) {
+                    out.writeUTF(column.getKey());
+                    out.writeByte(column.getValue().intValue());
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // a string too long for writeUTF
+            return null;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static ArrayList<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        ArrayList<String> strings = new ArrayList<String>(Math.min(count, 64));
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static final class Key {
+        private final long hash;
+        private final long check;
+        private final int length;
+
+        Key(long hash, long check, int length) {
+            this.hash = hash;
+            this.check = check;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && check == other.check && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
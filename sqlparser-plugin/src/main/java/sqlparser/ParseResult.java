@@ -0,0 +1,86 @@
+package sqlparser;
+
+/**
+ * What {@link QueryParser#parse(String)} made of a statement: it was added to the schema
+ * summary, it is of a kind the parser does not handle, or it could not be parsed, with
+ * the reason and the offset in the normalized statement where parsing gave up.
+ *
+ * <p>The normalized statement is the lower-cased, trimmed statement with the keywords the
+ * parser ignores removed, as kept by {@link QueryParser#getLastFailedQuery()}.
+ */
+public final class ParseResult {
+
+    public enum Status {
+        SUCCESS, UNSUPPORTED, MALFORMED
+    }
+
+    public enum Reason {
+        NONE,
+        /** The command word is not select, insert or update. */
+        UNSUPPORTED_COMMAND,
+        /** There was no statement at all. */
+        NO_STATEMENT,
+        /** The statement is a single word. */
+        NO_COMMAND_WORD,
+        /** The statement ends before the parts its command word requires. */
+        TRUNCATED,
+        /** A select without a from clause. */
+        MISSING_FROM,
+        /** The table is not qualified with a schema. */
+        MISSING_SCHEMA,
+        /** The table name could not be delimited. */
+        MISSING_TABLE,
+        /** A parenthesis in the column list is not closed. */
+        UNBALANCED_PARENTHESES,
+        /** Columns of a select list could not be told apart. */
+        MISSING_COLUMN_SEPARATOR,
+        /** An insert without a values clause. */
+        MISSING_VALUES,
+        /** An update whose set clause could not be found. */
+        MISSING_SET,
+        /** An assignment of an update without '='. */
+        MISSING_ASSIGNMENT
+    }
+
+    public static final ParseResult SUCCESS = new ParseResult(Status.SUCCESS, Reason.NONE, -1);
+    public static final ParseResult UNSUPPORTED = new ParseResult(Status.UNSUPPORTED, Reason.UNSUPPORTED_COMMAND, 0);
+
+    private final Status status;
+    private final Reason reason;
+    private final int offset;
+
+    private ParseResult(Status status, Reason reason, int offset) {
+        this.status = status;
+        this.reason = reason;
+        this.offset = offset;
+    }
+
+    public static ParseResult malformed(Reason reason, int offset) {
+        return new ParseResult(Status.MALFORMED, reason, offset);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Offset in the normalized statement where parsing stopped, -1 on success.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return status == Status.SUCCESS ? "success" : status.name().toLowerCase() + " (" + reason.name().toLowerCase()
+                + " at " + offset + ")";
+    }
+}
@@ -0,0 +1,172 @@
+package sqlparser;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Turns classified container log lines into {@link QueryRecord}s.
+ *
+ * <p>jdbcdslog writes a marker line (ConnectionLogger, StatementLogger, ResultSetLogger)
+ * followed by the payload line, so the assembler has to see the lines in log order.
+ * A record is complete once the "Total of n rows read" line following a statement marker
+ * has been seen.
+ */
+public final class QueryLogAssembler {
+
+    /**
+     * Receives every record as soon as it is complete.
+     */
+    public interface Handler {
+        void onRecord(QueryRecord record) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Decides as soon as a statement is logged whether its record is assembled, so the
+     * result rows of a statement that is not wanted are never collected. The connection
+     * workload and statement timeline still count every statement.
+     */
+    public interface StatementFilter {
+        /**
+         * Whether the record of the statement just logged is wanted.
+         */
+        boolean select(String query);
+
+        /**
+         * The statement last passed to {@link #select(String)} completed, having read the given rows.
+         */
+        void completed(long rows);
+    }
+
+    /**
+     * What the assembler is in the middle of: the kind of payload expected next, the
+     * current connection and statement, and the rows of a record not completed yet, along
+     * with the connection workload and statement timeline seen so far, and the zone the
+     * log timestamps are read in.
+     */
+    public static final class State implements Serializable {
+        private static final long serialVersionUID = 5L;
+
+        private int nextType = LineClassifier.NONE;
+        private String connection = "";
+        private long connectionOpened = -1;
+        private long markerAt = -1;
+        private String query = "";
+        private long queryAt = -1;
+        private boolean selected = true;
+        private final ArrayList<String> results = new ArrayList<String>();
+        private final ConnectionWorkload workload = new ConnectionWorkload();
+        private final StatementTimeline timeline;
+        private final TimeZone zone;
+
+        public State() {
+            this(StatementTimeline.DEFAULT_BUCKET_MILLIS, TimeZone.getDefault());
+        }
+
+        /**
+         * @param timelineMillis width of the {@link StatementTimeline} buckets, in ms
+         * @param zone the zone the log was written in, see {@link LogTimestamp}
+         */
+        public State(long timelineMillis, TimeZone zone) {
+            this.timeline = new StatementTimeline(timelineMillis);
+            this.zone = zone;
+        }
+
+        public ConnectionWorkload getWorkload() {
+            return workload;
+        }
+
+        public StatementTimeline getTimeline() {
+            return timeline;
+        }
+
+        public TimeZone getZone() {
+            return zone;
+        }
+    }
+
+    private final Handler handler;
+    private final State state;
+    private final StatementFilter filter;
+    private final LogTimestamp timestamps;
+    private int statements;
+
+    public QueryLogAssembler(Handler handler) {
+        this(handler, new State());
+    }
+
+    /**
+     * Continues from the given state, which is updated as lines are accepted.
+     */
+    public QueryLogAssembler(Handler handler, State state) {
+        this(handler, state, null);
+    }
+
+    /**
+     * Like {@link #QueryLogAssembler(Handler, State)}, only assembling the records the
+     * filter selects.
+     */
+    public QueryLogAssembler(Handler handler, State state, StatementFilter filter) {
+        this.handler = handler;
+        this.state = state;
+        this.filter = filter;
+        this.timestamps = new LogTimestamp(state.zone);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Number of statements completed by this assembler, selected or not.
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    public void accept(LineBatch batch) throws IOException, InterruptedException {
+        for (int i = 0; i < batch.size; i++) {
+            accept(batch.lines[i], batch.kinds[i], batch.totals[i]);
+        }
+    }
+
+    public void accept(String line, int kind, String total) throws IOException, InterruptedException {
+        State s = state;
+        if (s.nextType == LineClassifier.STATEMENT && (kind & LineClassifier.TOTAL) != 0) {
+            long rows = QueryRecord.rows(total);
+            s.workload.statement(rows);
+            s.timeline.statement(s.queryAt, StatementFingerprint.millis(s.query), rows);
+            statements++;
+            if (filter != null) {
+                filter.completed(rows);
+            }
+            if (s.selected) {
+                handler.onRecord(new QueryRecord(s.connection, s.query, s.results, total));
+            }
+            s.results.clear();
+        } else if (s.nextType == LineClassifier.STATEMENT) {
+            s.query = line.substring(6);
+            s.queryAt = s.markerAt;
+            s.selected = filter == null || filter.select(s.query);
+        } else if (s.nextType == LineClassifier.CONNECTION) {
+            s.connection = line.substring(6);
+            s.workload.opened(s.connection, s.connectionOpened);
+        } else if (s.nextType == LineClassifier.RESULT && s.selected) {
+            String result = line.substring(31);
+            s.results.add(result.substring(0, result.length() - 1));
+        }
+
+        if ((kind & LineClassifier.CONNECTION) != 0) {
+            s.nextType = LineClassifier.CONNECTION;
+            s.connectionOpened = timestamps.parse(line);
+        } else if ((kind & LineClassifier.STATEMENT) != 0) {
+            s.nextType = LineClassifier.STATEMENT;
+            s.markerAt = timestamps.parse(line);
+        } else if ((kind & LineClassifier.RESULT) != 0) {
+            s.nextType = LineClassifier.RESULT;
+        } else {
+            s.nextType = LineClassifier.NONE;
+        }
+    }
+}
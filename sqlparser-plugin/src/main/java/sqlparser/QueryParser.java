@@ -1,5 +1,8 @@
 package sqlparser;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,18 +16,48 @@ import org.json.*;
  * @author Ryan Williams
  * @version 1.0
  */
-public class QueryParser {
+public class QueryParser implements Serializable {
 
-	private JSONObject queryJson;
+	private static final long serialVersionUID = 2L;
+
+	/*
+	 * Failed querys kept by getAllFailedQuerys, so a log the parser cannot handle does not
+	 * fill the memory and every checkpoint of an incremental scan with them
+	 */
+	public static final int MAX_FAILED_QUERYS = 1000;
+
+	/*
+	 * Version of what the parser extracts from a statement. Bump it with any change to the
+	 * parsing, so extractions cached by ParseCache under an older version are dropped
+	 */
+	public static final int EXTRACTION_VERSION = 1;
+
+	/*
+	 * Cached for statement shapes whose literal digits make a difference to the extraction
+	 */
+	static final Extraction UNCACHEABLE = new Extraction();
+
+	/*
+	 * Removed from every query, in this order. "(NOLOCK)" used to be a regular expression,
+	 * which matches NOLOCK without the parentheses
+	 */
+	private static final String[] GARBAGE = { "union ", "all ", "inner ", "join ", "is ", "not ", "null ", "NOLOCK",
+			"and ", "getdate()", "between ", "order ", "by ", "asc ", "in " };
+
+	private transient JSONObject queryJson;
 	private HashMap<String, HashMap<String, ArrayList<String>>> hashResults;
 	private String lastFailedQuery;
 	private ArrayList<String> allFailedQuerys;
-	private ArrayList<Integer> queryTimes;
+	private int failedQuerys;
+	private long totalQueryTime;
+	private int timedQuerys;
 	private int maxQueryTime;
 	private ArrayList<String> maxQueryTimeStrings;
 
 	private String lastUsedTableName;
 	private String lastUsedSchemaName;
+	private IndexAdvisor indexAdvisor;
+	private transient ParseCache cache;
 
 	/*
 	 * Constructs a QueryParser object and creates an empty JSON Object
@@ -34,11 +67,11 @@ public class QueryParser {
 		hashResults = new HashMap<String, HashMap<String, ArrayList<String>>>();
 		lastFailedQuery = "";
 		allFailedQuerys = new ArrayList<String>();
-		queryTimes = new ArrayList<Integer>();
 		maxQueryTime = 0;
 		maxQueryTimeStrings = new ArrayList<String>();
 		lastUsedTableName = "";
 		lastUsedSchemaName = "";
+		indexAdvisor = new IndexAdvisor();
 	}
 
 	/*
@@ -54,8 +87,8 @@ public class QueryParser {
 	}
 
 	/*
-	 * Return all querys that have failed to be parsed
-	 * @return ArrayList of all querys that were not successfully parsed by parseQuery
+	 * Return the querys that have failed to be parsed, the first MAX_FAILED_QUERYS of them
+	 * @return ArrayList of querys that were not successfully parsed by parseQuery
 	 */
 	public ArrayList<String> getAllFailedQuerys() {
 		if (allFailedQuerys.isEmpty()) {
@@ -65,6 +98,15 @@ public class QueryParser {
 		}
 	}
 
+	/*
+	 * Return how many querys have failed to be parsed, including those getAllFailedQuerys
+	 * no longer keeps
+	 * @return int number of failed querys
+	 */
+	public int getFailedQueryCount() {
+		return failedQuerys;
+	}
+
 	/*
 	 * Return JSONObject representation of the build output
 	 * @return JSONObject object representing build output
@@ -88,11 +130,40 @@ public class QueryParser {
 		}
 	}
 
+	/*
+	 * The JSONObject is rebuilt from hashResults by getResults, so it is not serialized
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		queryJson = new JSONObject();
+	}
+
 	/*
 	 * Reset parsing, create a new JSONObject
 	 */
 	public void resetParsing() {
 		hashResults = new HashMap<String, HashMap<String, ArrayList<String>>>();
+		indexAdvisor = new IndexAdvisor();
+	}
+
+	/*
+	 * Reuse the extractions of statement shapes parsed before, and add those of new ones
+	 * @param cache the cache, or null to parse every statement
+	 */
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	/*
+	 * Return the candidate indexes derived from the where clauses seen so far, heaviest first
+	 * @return JSONArray of candidate indexes
+	 */
+	public JSONArray getCandidateIndexes() {
+		try {
+			return indexAdvisor.toJSON();
+		} catch (JSONException e) {
+			return new JSONArray();
+		}
 	}
 
 	/*
@@ -120,11 +191,7 @@ public class QueryParser {
 	 * @return double average time
 	 */
 	public Double getAverageQueryTime() {
-		Double average = 0.0;
-		for (int i = 0; i < queryTimes.size(); i++) {
-			average += queryTimes.get(i);
-		}
-		return average / queryTimes.size();
+		return (double) totalQueryTime / timedQuerys;
 	}
 
 	/*
@@ -132,91 +199,247 @@ public class QueryParser {
 	 * @return boolean success or failure
 	 */
 	public boolean processQuery(String query) {
-		try {
-			query = query.toLowerCase().trim();
-			query = removeGarbage(query);
-			String commandWord = getCommandWord(query);
-			if (commandWord.equals("select")) {
-				String selectquery = query;
-				while (selectquery.indexOf("select ") != -1) {
-					processSelectQuery(selectquery.trim());
-					selectquery = selectquery.substring(selectquery.indexOf("select ") + 7);
-					selectquery = (selectquery.indexOf("select ") == -1) ? "" : selectquery.substring(selectquery
-							.indexOf("select "));
+		return parse(query).isSuccess();
+	}
+
+	/*
+	 * Process a query string like processQuery, telling why a query could not be processed.
+	 * Malformed and unsupported querys are detected up front rather than by catching exceptions,
+	 * which keeps logs full of them cheap to parse. With a cache set, statements of a shape
+	 * parsed before are not parsed again
+	 * @return ParseResult success, unsupported or malformed with the reason
+	 */
+	public ParseResult parse(String query) {
+		if (query == null) {
+			return fail(null, ParseResult.malformed(ParseResult.Reason.NO_STATEMENT, 0));
+		}
+		query = query.toLowerCase().trim();
+		String shape = null;
+		Extraction cached = null;
+		if (cache != null) {
+			shape = StatementFingerprint.digitsMasked(query);
+			cached = cache.get(shape);
+			if (cached != null && cached != UNCACHEABLE) {
+				indexAdvisor.add(cached.predicates, IndexAdvisor.millis(query));
+				apply(cached);
+				processQueryTime(removeGarbage(query));
+				return ParseResult.SUCCESS;
+			}
+		}
+		Extraction extraction = new Extraction();
+		ParseResult result = extract(query, extraction);
+		apply(extraction);
+		if (!result.isSuccess()) {
+			return fail(extraction.normalized, result);
+		}
+		// Statements that could not be parsed do not suggest indexes
+		indexAdvisor.add(extraction.predicates, IndexAdvisor.millis(query));
+		processQueryTime(extraction.normalized);
+		if (cache != null && cached == null && !cache.isFull()) {
+			cache.put(shape, sameWithShiftedDigits(query, extraction) ? extraction : UNCACHEABLE);
+		}
+		return result;
+	}
+
+	/*
+	 * Takes the tables, columns and predicates out of a lower-cased statement without
+	 * touching the results, which apply adds them to
+	 */
+	private ParseResult extract(String query, Extraction extraction) {
+		// The where clause operators are gone once the garbage is removed
+		extraction.predicates = IndexAdvisor.predicates(query);
+		query = removeGarbage(query);
+		extraction.normalized = query;
+		int space = query.indexOf(" ");
+		if (space == -1) {
+			return ParseResult.malformed(ParseResult.Reason.NO_COMMAND_WORD, query.length());
+		}
+		String commandWord = query.substring(0, space);
+		ParseResult result;
+		if (commandWord.equals("select")) {
+			String selectquery = query;
+			while (selectquery.indexOf("select ") != -1) {
+				result = processSelectQuery(selectquery.trim(), query.length() - selectquery.length(), extraction);
+				if (!result.isSuccess()) {
+					return result;
 				}
-				checkForWhereStatement(query);
-			} else if (commandWord.equals("insert")) {
-				processInsertQuery(query.trim());
-			} else if (commandWord.equals("update")) {
-				processUpdateQuery(query.trim());
-			} else {
-				lastFailedQuery = query;
-				allFailedQuerys.add(query);
-				return false;
+				selectquery = selectquery.substring(selectquery.indexOf("select ") + 7);
+				selectquery = (selectquery.indexOf("select ") == -1) ? "" : selectquery.substring(selectquery
+						.indexOf("select "));
 			}
-			processQueryTime(query);
-			return true;
-		} catch (Exception e) {
-			lastFailedQuery = query;
+			checkForWhereStatement(query, extraction);
+		} else if (commandWord.equals("insert")) {
+			return processInsertQuery(query.trim(), extraction);
+		} else if (commandWord.equals("update")) {
+			return processUpdateQuery(query.trim(), extraction);
+		} else {
+			return ParseResult.UNSUPPORTED;
+		}
+		return ParseResult.SUCCESS;
+	}
+
+	/*
+	 * Whether the digits of the statement's literals can be left out of its cache key: the
+	 * same is extracted with each of them changed
+	 */
+	private boolean sameWithShiftedDigits(String query, Extraction extraction) {
+		Extraction shifted = new Extraction();
+		return extract(StatementFingerprint.digitsShifted(query), shifted).isSuccess() && shifted.sameAs(extraction);
+	}
+
+	private void apply(Extraction extraction) {
+		for (int i = 0; i < extraction.tables.size(); i++) {
+			// the cached lists must stay as they are
+			appendToResults(extraction.schemas.get(i), extraction.tables.get(i),
+					new ArrayList<String>(extraction.columns.get(i)));
+		}
+		if (extraction.lastSchema != null) {
+			lastUsedSchemaName = extraction.lastSchema;
+			lastUsedTableName = extraction.lastTable;
+		}
+	}
+
+	private ParseResult fail(String query, ParseResult result) {
+		lastFailedQuery = query;
+		if (failedQuerys < MAX_FAILED_QUERYS) {
 			allFailedQuerys.add(query);
-			return false;
 		}
+		failedQuerys++;
+		return result;
 	}
 
-	private void processSelectQuery(String query) {
+	/*
+	 * @param offset where the query starts in the normalized query, for the ParseResult
+	 */
+	private ParseResult processSelectQuery(String query, int offset, Extraction extraction) {
+		if (query.length() < 7) {
+			return ParseResult.malformed(ParseResult.Reason.TRUNCATED, offset + query.length());
+		}
 		query = query.substring(7);
-		String schemaAndTable = query.substring(query.indexOf(" from ") + 6);
-		String schema = schemaAndTable.substring(0, schemaAndTable.indexOf("."));
-		String table = schemaAndTable.substring(schemaAndTable.indexOf(".") + 1, (Math.min(schemaAndTable.indexOf(" "),
-				schemaAndTable.length()) == -1) ? schemaAndTable.length() : schemaAndTable.indexOf(" "));
-		String unprocessedQuerys = query.substring(0, query.indexOf(" from ")).trim();
+		offset += 7;
+		int from = query.indexOf(" from ");
+		if (from == -1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_FROM, offset);
+		}
+		String schemaAndTable = query.substring(from + 6);
+		int dot = schemaAndTable.indexOf(".");
+		if (dot == -1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_SCHEMA, offset + from + 6);
+		}
+		String schema = schemaAndTable.substring(0, dot);
+		int tableEnd = schemaAndTable.indexOf(" ") == -1 ? schemaAndTable.length() : schemaAndTable.indexOf(" ");
+		if (tableEnd < dot + 1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_TABLE, offset + from + 6 + tableEnd);
+		}
+		String table = schemaAndTable.substring(dot + 1, tableEnd);
+		String unprocessedQuerys = query.substring(0, from).trim();
 		ArrayList<String> queryStrings;
 		if (unprocessedQuerys.indexOf("(") != -1 && unprocessedQuerys.indexOf(",") == -1) {
+			int open = unprocessedQuerys.indexOf("(");
+			int close = unprocessedQuerys.indexOf(")");
+			if (close < open + 1) {
+				return ParseResult.malformed(ParseResult.Reason.UNBALANCED_PARENTHESES, offset + open);
+			}
 			queryStrings = new ArrayList<String>();
-			queryStrings.add(unprocessedQuerys.substring(unprocessedQuerys.indexOf("(") + 1,
-					unprocessedQuerys.indexOf(")")));
+			queryStrings.add(unprocessedQuerys.substring(open + 1, close));
 		} else {
 			if (unprocessedQuerys.indexOf(".") == -1) {
 				queryStrings = parseQueryByComma(unprocessedQuerys);
 			} else {
 				queryStrings = parseQueryByPeriod(unprocessedQuerys);
+				if (queryStrings == null) {
+					return ParseResult.malformed(ParseResult.Reason.MISSING_COLUMN_SEPARATOR, offset);
+				}
 			}
 		}
-		appendToResults(removeNonLetters(schema), removeNonLetters(table), queryStrings);
-		lastUsedSchemaName = removeNonLetters(schema);
-		lastUsedTableName = removeNonLetters(table);
+		extraction.add(removeNonLetters(schema), removeNonLetters(table), queryStrings);
+		extraction.lastSchema = removeNonLetters(schema);
+		extraction.lastTable = removeNonLetters(table);
+		return ParseResult.SUCCESS;
 	}
 
-	private void processInsertQuery(String query) {
+	private ParseResult processInsertQuery(String query, Extraction extraction) {
+		if (query.length() < 12) {
+			return ParseResult.malformed(ParseResult.Reason.TRUNCATED, query.length());
+		}
 		query = query.substring(12);
-		String schema = query.substring(0, query.indexOf(".")).trim();
-		String table = query.trim().substring(query.indexOf(".") + 1, query.indexOf(" "));
-		String unprocessedQuerys = query.substring(query.indexOf(" ") + 1, query.indexOf(" values"));
+		int dot = query.indexOf(".");
+		if (dot == -1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_SCHEMA, 12);
+		}
+		String schema = query.substring(0, dot).trim();
+		int space = query.indexOf(" ");
+		if (space < dot + 1 || space > query.trim().length()) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_TABLE, 12 + dot + 1);
+		}
+		String table = query.trim().substring(dot + 1, space);
+		int values = query.indexOf(" values");
+		if (values < space + 1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_VALUES, 12 + space + 1);
+		}
+		String unprocessedQuerys = query.substring(space + 1, values);
 		ArrayList<String> queryStrings = parseQueryByComma(unprocessedQuerys);
-		appendToResults(schema, table, queryStrings);
+		extraction.add(schema, table, queryStrings);
+		return ParseResult.SUCCESS;
 	}
 
-	private void processUpdateQuery(String query) {
+	private ParseResult processUpdateQuery(String query, Extraction extraction) {
+		if (query.length() < 7) {
+			return ParseResult.malformed(ParseResult.Reason.TRUNCATED, query.length());
+		}
 		query = query.substring(7);
-		String schema = query.substring(0, query.indexOf(".")).trim();
-		String table = query.trim().substring(query.indexOf(".") + 1, query.indexOf(" "));
-		String unprocessedQuerys = query.substring(query.indexOf(" set ") + 5).trim();
+		int dot = query.indexOf(".");
+		if (dot == -1) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_SCHEMA, 7);
+		}
+		String schema = query.substring(0, dot).trim();
+		int space = query.indexOf(" ");
+		if (space < dot + 1 || space > query.trim().length()) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_TABLE, 7 + dot + 1);
+		}
+		String table = query.trim().substring(dot + 1, space);
+		int set = query.indexOf(" set ") + 5;
+		if (set > query.length()) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_SET, 7 + query.length());
+		}
+		String unprocessedQuerys = query.substring(set).trim();
 		ArrayList<String> queryStrings = parseQueryByEqualsSign(unprocessedQuerys);
-		appendToResults(schema, table, queryStrings);
+		if (queryStrings == null) {
+			return ParseResult.malformed(ParseResult.Reason.MISSING_ASSIGNMENT, 7 + set);
+		}
+		extraction.add(schema, table, queryStrings);
+		return ParseResult.SUCCESS;
 	}
 
-	private void processWhere(String query) {
+	/*
+	 * Adds the columns of the where clause to the last table, if they can be made out
+	 * @return whether they could
+	 */
+	private boolean processWhere(String query, Extraction extraction) {
+		if (query.length() < 7) {
+			return false;
+		}
 		query = query.substring(7);
+		int where = query.indexOf(" where ") + 7;
+		if (where > query.length()) {
+			return false;
+		}
 		if (query.indexOf("select ") == -1) {
-			query = query.substring(query.indexOf(" where ") + 7).trim();
+			query = query.substring(where).trim();
 		} else {
-			query = query.substring(query.indexOf(" where ") + 7, query.indexOf("select ")).trim();
+			if (query.indexOf("select ") < where) {
+				return false;
+			}
+			query = query.substring(where, query.indexOf("select ")).trim();
 		}
 		if (query.indexOf(";") != -1) {
 			query = query.substring(0, query.indexOf(";"));
 		}
 		query = query.replaceAll("<", "").replaceAll(">", "");
 		while (query.indexOf("=") != -1) {
+			if (query.indexOf("=") + 1 == query.length()) {
+				return false;
+			}
 			Character charAfterSign = query.charAt(query.indexOf("=") + 1);
 			if (charAfterSign.equals(' ')) {
 				if (query.indexOf(" ", query.indexOf("=") + 2) == -1) {
@@ -259,15 +482,25 @@ public class QueryParser {
 		if (!query.isEmpty()) {
 			queryStrings.add(removeNonLetters(query));
 		}
+		if (queryStrings.isEmpty()) {
+			return false;
+		}
 		if (!queryStrings.get(0).isEmpty()) {
-			appendToResults(lastUsedSchemaName, lastUsedTableName, queryStrings);
+			extraction.add(extraction.lastSchema, extraction.lastTable, queryStrings);
 		}
+		return true;
 	}
 
+	/*
+	 * @return the columns, or null if a comma follows the first column directly
+	 */
 	private ArrayList<String> parseQueryByPeriod(String unprocessedQuerys) {
 		ArrayList<String> queryStrings = new ArrayList<String>();
 		String query;
 		if (unprocessedQuerys.indexOf(".", unprocessedQuerys.indexOf(".") + 1) == -1) {
+			if (unprocessedQuerys.indexOf(",") < unprocessedQuerys.indexOf(".") + 1) {
+				return null;
+			}
 			queryStrings = parseQueryByComma(unprocessedQuerys.substring(unprocessedQuerys.indexOf(",") + 1));
 			queryStrings.add(unprocessedQuerys.substring(unprocessedQuerys.indexOf(".") + 1,
 					unprocessedQuerys.indexOf(",")).trim());
@@ -305,14 +538,23 @@ public class QueryParser {
 		return queryStrings;
 	}
 
+	/*
+	 * @return the assigned columns, or null if an assignment has no '='
+	 */
 	private ArrayList<String> parseQueryByEqualsSign(String unprocessedQuerys) {
 		ArrayList<String> queryStrings = new ArrayList<String>();
 		String query;
 		while (unprocessedQuerys.indexOf(",") != -1) {
+			if (unprocessedQuerys.indexOf("=") == -1) {
+				return null;
+			}
 			query = unprocessedQuerys.substring(0, unprocessedQuerys.indexOf("="));
 			queryStrings.add(query);
 			unprocessedQuerys = unprocessedQuerys.substring(unprocessedQuerys.indexOf(",") + 1).trim();
 		}
+		if (unprocessedQuerys.indexOf("=") == -1) {
+			return null;
+		}
 		queryStrings.add(unprocessedQuerys.substring(0, unprocessedQuerys.indexOf("=")));
 		return queryStrings;
 	}
@@ -341,10 +583,6 @@ public class QueryParser {
 		}
 	}
 
-	private String getCommandWord(String query) {
-		return query.substring(0, query.indexOf(" "));
-	}
-
 	private ArrayList<String> removeExcessQueries(ArrayList<String> queryArray, String table) {
 		for (int i = 0; i < queryArray.size(); i++) {
 			if (queryArray.get(i).indexOf(".") != -1) {
@@ -359,27 +597,61 @@ public class QueryParser {
 		// If it fails, it has no effect on the overall success of the query
 		// parsing, so we don't want to throw an exception or
 		// track the query as a failure
-		try {
-			if (query.indexOf("ms.") != -1) {
-				Integer queryTime = Integer.parseInt(query.substring(query.indexOf(";") + 2, query.indexOf("ms.") - 1));
-				queryTimes.add(queryTime);
-				if (queryTime > maxQueryTime) {
-					maxQueryTime = queryTime;
-					maxQueryTimeStrings.add(query);
-				}
-			}
-		} catch (Exception e) {
+		int end = query.indexOf("ms.") - 1;
+		if (end == -2) {
 			return;
 		}
+		int begin = query.indexOf(";") + 2;
+		if (begin > end) {
+			return;
+		}
+		Integer queryTime = parseInt(query.substring(begin, end));
+		if (queryTime == null) {
+			return;
+		}
+		totalQueryTime += queryTime;
+		timedQuerys++;
+		if (queryTime > maxQueryTime) {
+			maxQueryTime = queryTime;
+			maxQueryTimeStrings.add(query);
+		}
 	}
 
-	private void checkForWhereStatement(String query) {
-		try {
-			if (query.indexOf(" where ") != -1) {
-				processWhere(query);
+	/*
+	 * Integer.parseInt without the NumberFormatException
+	 * @return the value, or null if the text is not an int
+	 */
+	private static Integer parseInt(String text) {
+		int i = 0;
+		boolean negative = false;
+		if (text.length() > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+			negative = text.charAt(0) == '-';
+			i = 1;
+		}
+		if (i == text.length()) {
+			return null;
+		}
+		long value = 0;
+		for (; i < text.length(); i++) {
+			int digit = Character.digit(text.charAt(i), 10);
+			if (digit < 0) {
+				return null;
+			}
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				return null;
 			}
-		} catch (Exception e) {
-			return;
+		}
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE) {
+			return null;
+		}
+		return Integer.valueOf((int) value);
+	}
+
+	private void checkForWhereStatement(String query, Extraction extraction) {
+		if (query.indexOf(" where ") != -1) {
+			processWhere(query, extraction);
 		}
 	}
 
@@ -388,10 +660,53 @@ public class QueryParser {
 	}
 
 	private String removeGarbage(String query) {
-		query = query.replaceAll("union ", "").replaceAll("all ", "").replaceAll("inner ", "").replaceAll("join ", "")
-				.replaceAll("is ", "").replaceAll("not ", "").replaceAll("null ", "").replaceAll("(NOLOCK)", "")
-				.replaceAll("and ", "").replaceAll("getdate\\(\\)", "").replaceAll("between ", "")
-				.replaceAll("order ", "").replaceAll("by ", "").replaceAll("asc ", "").replaceAll("in ", "");
+		for (String garbage : GARBAGE) {
+			int at = query.indexOf(garbage);
+			if (at == -1) {
+				continue;
+			}
+			StringBuilder sb = new StringBuilder(query.length());
+			int from = 0;
+			while (at != -1) {
+				sb.append(query, from, at);
+				from = at + garbage.length();
+				at = query.indexOf(garbage, from);
+			}
+			sb.append(query, from, query.length());
+			query = sb.toString();
+		}
 		return query;
 	}
+
+	/*
+	 * What one statement adds to the results: the columns found per table in the order they
+	 * were found, the table of its last select, which where clauses belong to, and the
+	 * predicates for the IndexAdvisor
+	 */
+	static final class Extraction {
+		final ArrayList<String> schemas = new ArrayList<String>();
+		final ArrayList<String> tables = new ArrayList<String>();
+		final ArrayList<ArrayList<String>> columns = new ArrayList<ArrayList<String>>();
+		String lastSchema;
+		String lastTable;
+		Map<String, Map<String, Integer>> predicates;
+		// the statement the extraction was made from, not cached
+		String normalized;
+
+		void add(String schema, String table, ArrayList<String> queryStrings) {
+			schemas.add(schema);
+			tables.add(table);
+			columns.add(queryStrings);
+		}
+
+		boolean sameAs(Extraction other) {
+			return schemas.equals(other.schemas) && tables.equals(other.tables) && columns.equals(other.columns)
+					&& equal(lastSchema, other.lastSchema) && equal(lastTable, other.lastTable)
+					&& predicates.equals(other.predicates);
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
 }
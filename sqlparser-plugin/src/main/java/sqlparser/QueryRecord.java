@@ -0,0 +1,125 @@
+package sqlparser;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One executed statement as recorded in the container log: the connection it ran on,
+ * the statement text, the rows it returned and the reported row total.
+ */
+public final class QueryRecord {
+    private static final String URL_PREFIX = "connect to URL ";
+    private static final String USER_SUFFIX = " for user ";
+
+    private final String connection;
+    private final String query;
+    private final List<String> results;
+    private final String total;
+    private String resultsHash;
+
+    public QueryRecord(String connection, String query, List<String> results, String total) {
+        this.connection = connection;
+        this.query = query;
+        this.results = new ArrayList<String>(results);
+        this.total = total;
+    }
+
+    public String getConnection() {
+        return connection;
+    }
+
+    /**
+     * The JDBC URL out of a ConnectionLogger "connect to URL ... for user ..." line,
+     * or the whole connection line if it does not have that shape.
+     */
+    public String getConnectionUrl() {
+        return connectionUrl(connection);
+    }
+
+    static String connectionUrl(String connection) {
+        int start = connection.indexOf(URL_PREFIX);
+        if (start == -1) {
+            return connection;
+        }
+        start += URL_PREFIX.length();
+        int end = connection.indexOf(USER_SUFFIX, start);
+        return end == -1 ? connection.substring(start) : connection.substring(start, end);
+    }
+
+    /**
+     * The row total of a "Total of n rows read" line, 0 if it is not a number.
+     */
+    static long rows(String total) {
+        long rows = 0;
+        for (int i = 0; i < total.length(); i++) {
+            char c = total.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            rows = rows * 10 + (c - '0');
+        }
+        return rows;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public List<String> getResults() {
+        return results;
+    }
+
+    public String getTotal() {
+        return total;
+    }
+
+    /**
+     * SHA-1 of the result rows in hex, under which {@link ResultSetStore} keeps them.
+     * Records that returned the same rows share the hash.
+     */
+    public String getResultsHash() {
+        if (resultsHash == null) {
+            resultsHash = hash(results);
+        }
+        return resultsHash;
+    }
+
+    /**
+     * The record as it appears in the queries report. The rows themselves are only
+     * referenced by {@link #getResultsHash()}.
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject queryObj = new JSONObject();
+        queryObj.put("connection", connection);
+        queryObj.put("query", query);
+        queryObj.put("resultsHash", getResultsHash());
+        queryObj.put("total", total);
+        return queryObj;
+    }
+
+    static String hash(List<String> rows) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String row : rows) {
+                // rows come from single log lines, so a newline cannot be part of one
+                digest.update(row.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
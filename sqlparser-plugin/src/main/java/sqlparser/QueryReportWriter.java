@@ -0,0 +1,162 @@
+package sqlparser;
+
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.json.JSONException;
+
+/**
+ * Streams query records out as <code>{"queries": [...]}</code>, one record at a time.
+ *
+ * <p>The output is byte for byte what <code>JSONObject.toString(4)</code> produces for the
+ * whole report, so the report never has to be held in memory. org.json prints a
+ * single-element array inline and indents the elements of longer arrays, which is why
+ * the first record is held back until we know whether a second one follows. A report of
+ * a sampled scan also carries <code>"sampleFraction"</code>, after the queries.
+ */
+public final class QueryReportWriter {
+    private static final int INDENT = 4;
+
+    private final CountingWriter counter;
+    private final BufferedWriter out;
+    private String pending;
+    private int count;
+    private double sampleFraction = 1;
+
+    public QueryReportWriter(Writer out) {
+        this(out, 0, null);
+    }
+
+    /**
+     * Appends to a report left unfinished by an earlier writer, whose {@link #getCount()}
+     * and {@link #getPending()} are passed in.
+     */
+    public QueryReportWriter(Writer out, int count, String pending) {
+        this.counter = new CountingWriter(out);
+        this.out = new BufferedWriter(counter);
+        this.count = count;
+        this.pending = pending;
+    }
+
+    public void write(QueryRecord record) throws IOException {
+        String json;
+        try {
+            json = record.toJSON().toString(INDENT);
+        } catch (JSONException e) {
+            throw new IOException("Failed to serialize query: " + e.getMessage());
+        }
+
+        if (count == 0) {
+            pending = json;
+        } else {
+            if (count == 1) {
+                out.write("{\"queries\": [\n");
+                writeIndented(pending);
+                pending = null;
+            }
+            out.write(",\n");
+            writeIndented(json);
+        }
+        count++;
+    }
+
+    /**
+     * Marks the report as holding only this share of the statements logged.
+     */
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * The first record while it is still unknown whether more follow, otherwise null.
+     */
+    public String getPending() {
+        return pending;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Characters handed to the underlying writer so far; output still buffered is not included.
+     */
+    public long getCharsWritten() {
+        return counter.chars;
+    }
+
+    /**
+     * Finishes the report, followed by a line separator, and closes the underlying writer.
+     */
+    public void close() throws IOException {
+        try {
+            String sampled = sampleFraction < 1 ? "\"sampleFraction\": " + sampleFraction : null;
+            if (count == 0) {
+                out.write(sampled == null ? "{}" : "{" + sampled + "}");
+            } else {
+                if (count == 1) {
+                    out.write("{\"queries\": [");
+                    out.write(pending);
+                    out.write("]");
+                } else {
+                    out.write("\n]");
+                }
+                if (sampled != null) {
+                    out.write(",\n" + sampled);
+                }
+                out.write("}");
+            }
+            out.newLine();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeIndented(String json) throws IOException {
+        for (int i = 0; i < INDENT; i++) {
+            out.write(' ');
+        }
+        int start = 0;
+        int nl;
+        while ((nl = json.indexOf('\n', start)) != -1) {
+            out.write(json, start, nl + 1 - start);
+            for (int i = 0; i < INDENT; i++) {
+                out.write(' ');
+            }
+            start = nl + 1;
+        }
+        out.write(json, start, json.length() - start);
+    }
+
+    private static final class CountingWriter extends FilterWriter {
+        private long chars;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            chars++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            super.write(cbuf, off, len);
+            chars += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            super.write(str, off, len);
+            chars += len;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package sqlparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of a replay index written by {@link ReplayIndexWriter}: the rows every
+ * recorded statement returned, keyed by JDBC URL and normalized statement text.
+ *
+ * <p>jdbcdslog logs statements with their bind values already substituted, so the
+ * statement text is the whole lookup key apart from the connection.
+ *
+ * <p>Layout, all numbers big-endian:
+ * <pre>
+ * header   int magic, int version, int slot count (a power of two), int entry count
+ * slots    slot count times (long key hash, long entry offset), offset 0 marks a free slot
+ * entries  int key length, key, int total length, total, int row count, (int length, row)*
+ * </pre>
+ * Keys are <code>url + '\0' + statement</code>, all strings UTF-8. Slots are probed linearly
+ * from <code>hash &amp; (slots - 1)</code>.
+ *
+ * <p>The file is memory-mapped and never modified, so one instance can serve any number
+ * of threads. Indexes are limited to 2 GB.
+ */
+public final class ReplayIndex {
+    static final int MAGIC = 0x53514c52; // "SQLR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final int entries;
+
+    private ReplayIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a replay index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported replay index version " + buffer.getInt(4));
+        }
+        this.mask = buffer.getInt(8) - 1;
+        this.entries = buffer.getInt(12);
+    }
+
+    public static ReplayIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new ReplayIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * The rows recorded for the statement, or null if it was never seen on that connection.
+     */
+    public Rows lookup(String url, String statement) {
+        byte[] key = key(url, statement);
+        long hash = hash(key);
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) {
+            int pos = HEADER_SIZE + slot * SLOT_SIZE;
+            int offset = (int) buffer.getLong(pos + 8);
+            if (offset == 0) {
+                return null;
+            }
+            if (buffer.getLong(pos) == hash && keyEquals(offset, key)) {
+                return decode(offset + 4 + key.length);
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset) != key.length) {
+            return false;
+        }
+        int start = offset + 4;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Rows decode(int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        String total = readString(in);
+        int count = in.getInt();
+        List<String> rows = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(readString(in));
+        }
+        return new Rows(total, Collections.unmodifiableList(rows));
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Brings a statement as logged or as sent by a client to the form used as key: the
+     * trailing "; 7 ms." timing and semicolon dropped and whitespace runs collapsed.
+     */
+    public static String normalize(String statement) {
+        int end = skipSpaceBack(statement, statement.length());
+        int timing = end;
+        if (timing > 0 && statement.charAt(timing - 1) == '.') {
+            timing--;
+        }
+        if (timing >= 2 && statement.startsWith("ms", timing - 2)) {
+            int digits = skipSpaceBack(statement, timing - 2);
+            int i = digits;
+            while (i > 0 && Character.isDigit(statement.charAt(i - 1))) {
+                i--;
+            }
+            int semicolon = skipSpaceBack(statement, i);
+            if (i < digits && semicolon > 0 && statement.charAt(semicolon - 1) == ';') {
+                end = semicolon;
+            }
+        }
+        if (end > 0 && statement.charAt(end - 1) == ';') {
+            end = skipSpaceBack(statement, end - 1);
+        }
+
+        StringBuilder sb = new StringBuilder(end);
+        boolean space = false;
+        for (int i = 0; i < end; i++) {
+            char c = statement.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int skipSpaceBack(String s, int end) {
+        while (end > 0 && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    static byte[] key(String url, String statement) {
+        return utf8(url + '\0' + normalize(statement));
+    }
+
+    static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a.
+     */
+    static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * A second 64-bit hash, independent of {@link #hash(byte[])}, with which the writer
+     * tells keys apart.
+     */
+    static long check(byte[] bytes) {
+        long h = bytes.length;
+        for (byte b : bytes) {
+            h = (h + (b & 0xff)) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /**
+     * What a statement returned when it was recorded.
+     */
+    public static final class Rows {
+        private final String total;
+        private final List<String> rows;
+
+        Rows(String total, List<String> rows) {
+            this.total = total;
+            this.rows = rows;
+        }
+
+        /**
+         * The row total jdbcdslog reported, as logged.
+         */
+        public String getTotal() {
+            return total;
+        }
+
+        /**
+         * The captured ResultSetLogger rows, in the order they were read.
+         */
+        public List<String> getRows() {
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package sqlparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Builds a {@link ReplayIndex} from the records of a log scan.
+ *
+ * <p>Entries are appended to a scratch file as they arrive, so only the key hashes and
+ * offsets are kept in memory. When a statement was recorded more than once on the same
+ * connection the first recording wins. Keys are told apart by their length and two
+ * independent 64-bit hashes rather than their bytes, which are only on disk; two
+ * different statements colliding on all three is not a practical concern.
+ */
+public final class ReplayIndexWriter implements QueryLogAssembler.Handler {
+
+    /**
+     * The entries written to the scratch file so far.
+     */
+    public static final class State implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        private long[] hashes = new long[1024];
+        private long[] checks = new long[1024];
+        private int[] lengths = new int[1024];
+        private long[] offsets = new long[1024];
+        private int count;
+        private long size;
+    }
+
+    private final File scratch;
+    private final DataOutputStream data;
+    private final Set<Key> seen = new HashSet<Key>();
+    private final State state;
+
+    public ReplayIndexWriter(File scratch) throws IOException {
+        this(scratch, new State(), false);
+    }
+
+    /**
+     * Appends to a scratch file an earlier writer left in the given state.
+     */
+    public ReplayIndexWriter(File scratch, State state) throws IOException {
+        this(scratch, state, true);
+    }
+
+    private ReplayIndexWriter(File scratch, State state, boolean append) throws IOException {
+        this.scratch = scratch;
+        this.state = state;
+        if (append && scratch.length() != state.size) {
+            throw new IOException("Replay scratch file " + scratch + " does not match its state");
+        }
+        this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(scratch, append)));
+        for (int i = 0; i < state.count; i++) {
+            seen.add(new Key(state.hashes[i], state.checks[i], state.lengths[i]));
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void onRecord(QueryRecord record) throws IOException {
+        byte[] key = ReplayIndex.key(record.getConnectionUrl(), record.getQuery());
+        long hash = ReplayIndex.hash(key);
+        long check = ReplayIndex.check(key);
+        if (!seen.add(new Key(hash, check, key.length))) {
+            return;
+        }
+
+        State s = state;
+        if (s.count == s.hashes.length) {
+            s.hashes = grow(s.hashes);
+            s.checks = grow(s.checks);
+            s.offsets = grow(s.offsets);
+            int[] lengths = new int[s.lengths.length * 2];
+            System.arraycopy(s.lengths, 0, lengths, 0, s.lengths.length);
+            s.lengths = lengths;
+        }
+        s.hashes[s.count] = hash;
+        s.checks[s.count] = check;
+        s.lengths[s.count] = key.length;
+        s.offsets[s.count] = s.size;
+        s.count++;
+
+        s.size += writeBytes(key);
+        s.size += writeBytes(ReplayIndex.utf8(record.getTotal()));
+        data.writeInt(record.getResults().size());
+        s.size += 4;
+        for (String row : record.getResults()) {
+            s.size += writeBytes(ReplayIndex.utf8(row));
+        }
+    }
+
+    public int size() {
+        return state.count;
+    }
+
+    /**
+     * Pushes buffered entries out to the scratch file.
+     */
+    public void flush() throws IOException {
+        data.flush();
+    }
+
+    /**
+     * Writes the finished index and deletes the scratch file.
+     */
+    public void writeTo(File index) throws IOException {
+        data.close();
+        int count = state.count;
+        long size = state.size;
+        long[] hashes = state.hashes;
+        long[] offsets = state.offsets;
+        int slots = 16;
+        while (slots < count * 2) {
+            slots <<= 1;
+        }
+        long dataStart = ReplayIndex.HEADER_SIZE + (long) slots * ReplayIndex.SLOT_SIZE;
+        if (dataStart + size > Integer.MAX_VALUE) {
+            throw new IOException("Replay index would exceed 2 GB");
+        }
+
+        long[] slotHashes = new long[slots];
+        long[] slotOffsets = new long[slots];
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (hashes[i] ^ (hashes[i] >>> 32)) & (slots - 1);
+            while (slotOffsets[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            slotHashes[slot] = hashes[i];
+            slotOffsets[slot] = dataStart + offsets[i];
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+        try {
+            out.writeInt(ReplayIndex.MAGIC);
+            out.writeInt(ReplayIndex.VERSION);
+            out.writeInt(slots);
+            out.writeInt(count);
+            for (int i = 0; i < slots; i++) {
+                out.writeLong(slotHashes[i]);
+                out.writeLong(slotOffsets[i]);
+            }
+            InputStream in = new BufferedInputStream(new FileInputStream(scratch));
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+            scratch.delete();
+        }
+    }
+
+    /**
+     * Drops the scratch file without writing an index.
+     */
+    public void discard() {
+        try {
+            data.close();
+        } catch (IOException e) {
+            // nothing to save
+        }
+        scratch.delete();
+    }
+
+    private int writeBytes(byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    private static long[] grow(long[] array) {
+        long[] bigger = new long[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /**
+     * What tells two keys apart without their bytes.
+     */
+    private static final class Key {
+        private final long hash;
+        private final long check;
+        private final int length;
+
+        Key(long hash, long check, int length) {
+            this.hash = hash;
+            this.check = check;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && check == other.check && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
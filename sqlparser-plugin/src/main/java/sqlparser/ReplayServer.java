@@ -0,0 +1,156 @@
+package sqlparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a {@link ReplayIndex} over a local socket, so a build can be pointed at recorded
+ * results instead of a real database.
+ *
+ * <p>The protocol is line based and UTF-8. A client sends
+ * <pre>
+ * jdbc url TAB statement NEWLINE
+ * </pre>
+ * and gets back the number of recorded rows on a line of its own followed by the rows,
+ * one per line, or <code>-1</code> if the statement was not recorded on that connection.
+ * Newlines inside the statement have to be sent as spaces. A connection may send any
+ * number of requests.
+ *
+ * <p>Usage: <code>java -cp sqlparser.jar:json.jar sqlparser.ReplayServer sql_replay.idx [port]</code>
+ */
+public final class ReplayServer {
+    public static final int DEFAULT_PORT = 15433;
+
+    private final ReplayIndex index;
+    private final ServerSocket socket;
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private final Set<Socket> connected = new HashSet<Socket>();
+    private boolean closed;
+
+    /**
+     * Binds to the loopback interface; port 0 picks a free port.
+     */
+    public ReplayServer(ReplayIndex index, int port) throws IOException {
+        this.index = index;
+        this.socket = new ServerSocket(port, 50, InetAddress.getByName(null));
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Accepts clients until {@link #close()} is called.
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                final Socket client = socket.accept();
+                synchronized (connected) {
+                    if (closed) {
+                        client.close();
+                        return;
+                    }
+                    connected.add(client);
+                }
+                client.setTcpNoDelay(true);
+                clients.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            handle(client);
+                        } catch (IOException e) {
+                            // the client went away
+                        } finally {
+                            synchronized (connected) {
+                                connected.remove(client);
+                            }
+                            try {
+                                client.close();
+                            } catch (IOException e) {
+                                // already closed
+                            }
+                        }
+                    }
+                });
+            }
+        } catch (SocketException e) {
+            if (!socket.isClosed()) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clients and disconnects the ones still connected.
+     */
+    public void close() throws IOException {
+        List<Socket> open;
+        synchronized (connected) {
+            closed = true;
+            open = new ArrayList<Socket>(connected);
+            connected.clear();
+        }
+        try {
+            socket.close();
+        } finally {
+            for (Socket client : open) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+            clients.shutdownNow();
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), "UTF-8"));
+        String request;
+        while ((request = in.readLine()) != null) {
+            int tab = request.indexOf('\t');
+            ReplayIndex.Rows rows = tab == -1 ? null : index.lookup(request.substring(0, tab), request.substring(tab + 1));
+            if (rows == null) {
+                out.write("-1\n");
+            } else {
+                out.write(Integer.toString(rows.getRows().size()));
+                out.write('\n');
+                for (String row : rows.getRows()) {
+                    out.write(row);
+                    out.write('\n');
+                }
+            }
+            // Only flush once the client has no further requests in flight.
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ReplayServer <sql_replay.idx> [port]");
+            System.exit(2);
+        }
+        ReplayIndex index = ReplayIndex.open(new File(args[0]));
+        ReplayServer server = new ReplayServer(index, args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+        System.out.println("Serving " + index.size() + " recorded statements on port " + server.getPort());
+        server.serve();
+    }
+}
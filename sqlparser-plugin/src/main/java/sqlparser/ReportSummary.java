@@ -0,0 +1,214 @@
+package sqlparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * What the outputs of one scan add up to, for a page listing many of them: the statements
+ * in the queries report, the statements the schema summary could not take, the tables it
+ * lists and the most frequent statement fingerprints.
+ *
+ * <p>The queries report is streamed a record at a time, so only one counter per distinct
+ * fingerprint is held in memory.
+ */
+public final class ReportSummary {
+    /**
+     * Number of fingerprints kept in {@link #getTopStatements()}.
+     */
+    public static final int TOP_STATEMENTS = 5;
+
+    private final int statements;
+    private final int failed;
+    private final int tables;
+    private final List<TopStatement> topStatements;
+
+    ReportSummary(int statements, int failed, int tables, List<TopStatement> topStatements) {
+        this.statements = statements;
+        this.failed = failed;
+        this.tables = tables;
+        this.topStatements = topStatements;
+    }
+
+    /**
+     * Reads the report, schema summary and failures {@link LogScan} wrote to a directory.
+     */
+    public static ReportSummary read(File dir) throws IOException {
+        Map<String, TopStatement> fingerprints = new HashMap<String, TopStatement>();
+        int statements;
+        int failed = 0;
+        int tables = 0;
+        try {
+            Reader in = open(new File(dir, LogScan.REPORT_FILE));
+            try {
+                statements = readReport(new JSONTokener(in), fingerprints);
+            } finally {
+                in.close();
+            }
+
+            JSONObject schemas = readObject(new File(dir, LogScan.SUMMARY_FILE));
+            for (Iterator<?> it = schemas.keys(); it.hasNext();) {
+                tables += schemas.getJSONObject((String) it.next()).length();
+            }
+
+            File failures = new File(dir, LogScan.FAILURES_FILE);
+            if (failures.exists()) {
+                failed = readObject(failures).getInt("failed");
+            }
+        } catch (JSONException e) {
+            IOException failure = new IOException("Could not read the outputs in " + dir);
+            failure.initCause(e);
+            throw failure;
+        }
+
+        List<TopStatement> top = new ArrayList<TopStatement>(fingerprints.values());
+        Collections.sort(top, new Comparator<TopStatement>() {
+            public int compare(TopStatement a, TopStatement b) {
+                if (a.count != b.count) {
+                    return a.count > b.count ? -1 : 1;
+                }
+                return a.fingerprint.compareTo(b.fingerprint);
+            }
+        });
+        if (top.size() > TOP_STATEMENTS) {
+            top = new ArrayList<TopStatement>(top.subList(0, TOP_STATEMENTS));
+        }
+        return new ReportSummary(statements, failed, tables, Collections.unmodifiableList(top));
+    }
+
+    /**
+     * Counts the records of a queries report by fingerprint, without reading it into memory.
+     */
+    private static int readReport(JSONTokener in, Map<String, TopStatement> fingerprints) throws JSONException {
+        int records = 0;
+        if (in.nextClean() != '{') {
+            throw in.syntaxError("A report must begin with '{'");
+        }
+        if (in.nextClean() == '}') {
+            return 0;
+        }
+        in.back();
+        while (true) {
+            String key = in.nextValue().toString();
+            if (in.nextClean() != ':') {
+                throw in.syntaxError("Expected a ':' after a key");
+            }
+            if (!"queries".equals(key)) {
+                in.nextValue();
+            } else if (in.nextClean() != '[') {
+                throw in.syntaxError("The queries must be an array");
+            } else if (in.nextClean() != ']') {
+                in.back();
+                do {
+                    String query = ((JSONObject) in.nextValue()).getString("query");
+                    String fingerprint = StatementFingerprint.of(query);
+                    TopStatement statement = fingerprints.get(fingerprint);
+                    if (statement == null) {
+                        statement = new TopStatement(fingerprint);
+                        fingerprints.put(fingerprint, statement);
+                    }
+                    statement.count++;
+                    long millis = StatementFingerprint.millis(query);
+                    if (millis > 0) {
+                        statement.totalMillis += millis;
+                    }
+                    records++;
+                } while (in.nextClean() == ',');
+                in.back();
+                if (in.nextClean() != ']') {
+                    throw in.syntaxError("Expected a ',' or ']'");
+                }
+            }
+            char c = in.nextClean();
+            if (c == '}') {
+                return records;
+            }
+            if (c != ',') {
+                throw in.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    private static JSONObject readObject(File file) throws IOException, JSONException {
+        Reader in = open(file);
+        try {
+            return new JSONObject(new JSONTokener(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Reader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    /**
+     * Records in the queries report.
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    /**
+     * Statements QueryParser could not add to the schema summary.
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Tables in the schema summary, over all schemas.
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    /**
+     * The {@link #TOP_STATEMENTS} most frequent fingerprints, most frequent first.
+     */
+    public List<TopStatement> getTopStatements() {
+        return topStatements;
+    }
+
+    /**
+     * How often one statement fingerprint was run and how long it took altogether.
+     */
+    public static final class TopStatement {
+        private final String fingerprint;
+        private int count;
+        private long totalMillis;
+
+        TopStatement(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Sum of the logged execution times, statements logged without one counting as 0.
+         */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+    }
+}
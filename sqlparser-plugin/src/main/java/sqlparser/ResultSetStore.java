@@ -0,0 +1,104 @@
+package sqlparser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Content-addressed store of the result sets of a scan: every distinct set of rows is
+ * written once, keyed by {@link QueryRecord#getResultsHash()}, and the queries report
+ * only carries the hash.
+ *
+ * <p>The output is a single JSON object, <code>{"hash": ["row", ...], ...}</code>, written
+ * as the records come in; only the hashes already written are kept in memory.
+ */
+public final class ResultSetStore implements QueryLogAssembler.Handler {
+
+    /**
+     * What has been written so far, enough to append to an unfinished store later.
+     */
+    public static final class State implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> written = new HashSet<String>();
+        private int records;
+    }
+
+    private final BufferedWriter out;
+    private final State state;
+    private boolean closed;
+
+    public ResultSetStore(Writer out) throws IOException {
+        this.out = new BufferedWriter(out);
+        this.state = new State();
+        this.out.write('{');
+    }
+
+    /**
+     * Appends to the unfinished output of an earlier store that was left in the given state.
+     */
+    public ResultSetStore(Writer out, State state) {
+        this.out = new BufferedWriter(out);
+        this.state = state;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void onRecord(QueryRecord record) throws IOException {
+        Set<String> written = state.written;
+        state.records++;
+        String hash = record.getResultsHash();
+        if (!written.add(hash)) {
+            return;
+        }
+        if (written.size() > 1) {
+            out.write(',');
+        }
+        out.newLine();
+        out.write(JSONObject.quote(hash));
+        out.write(": ");
+        out.write(new JSONArray(record.getResults()).toString());
+    }
+
+    /**
+     * Number of records seen.
+     */
+    public int getRecords() {
+        return state.records;
+    }
+
+    /**
+     * Number of distinct result sets written.
+     */
+    public int getDistinct() {
+        return state.written.size();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!state.written.isEmpty()) {
+                out.newLine();
+            }
+            out.write('}');
+            out.newLine();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package sqlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a container log and writes the queries report, with reading, line matching and
+ * serialization overlapping each other.
+ *
+ * <p>The stages are connected by bounded queues, so a slow stage holds back the ones in
+ * front of it instead of letting batches pile up in memory:
+ * <ol>
+ * <li>a reader thread cuts the log into {@link LineBatch}es and hands each to the parse pool,</li>
+ * <li>the parse pool runs {@link LineClassifier} on the batches in parallel,</li>
+ * <li>the calling thread takes the classified batches back in log order and feeds them to
+ * {@link QueryLogAssembler},</li>
+ * <li>a writer thread passes the finished records to the registered listeners and serializes
+ * them with {@link QueryReportWriter}.</li>
+ * </ol>
+ * Since batches are re-assembled in the order they were read, the report is identical
+ * to a sequential scan whatever the tuning.
+ */
+public final class SQLLogPipeline {
+    public static final int DEFAULT_PARSE_THREADS = 2;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final Future<LineBatch> END_OF_LOG = new FutureTask<LineBatch>(new Callable<LineBatch>() {
+        public LineBatch call() {
+            return null;
+        }
+    });
+    private static final List<QueryRecord> END_OF_RECORDS = new ArrayList<QueryRecord>();
+
+    private final int parseThreads;
+    private final int batchSize;
+    private final int queueDepth;
+    private final List<QueryLogAssembler.Handler> listeners = new ArrayList<QueryLogAssembler.Handler>();
+    private QueryLogAssembler.StatementFilter filter;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param parseThreads number of threads matching lines, 0 for the default
+     * @param batchSize number of lines handed over at a time, 0 for the default
+     * @param queueDepth number of batches each queue may hold before its producer blocks, 0 for the default
+     */
+    public SQLLogPipeline(int parseThreads, int batchSize, int queueDepth) {
+        this.parseThreads = parseThreads > 0 ? parseThreads : DEFAULT_PARSE_THREADS;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.queueDepth = queueDepth > 0 ? queueDepth : DEFAULT_QUEUE_DEPTH;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Registers a handler that sees every record, in log order, just before it is written.
+     * Handlers run on the writer thread, one record at a time.
+     */
+    public void addListener(QueryLogAssembler.Handler listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Only assembles the records of the statements the filter selects, see
+     * {@link QueryLogAssembler.StatementFilter}. The filter runs on the assembling thread
+     * and sees every statement, in log order.
+     */
+    public void setFilter(QueryLogAssembler.StatementFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Where the log lines come from.
+     */
+    public interface LineSource {
+        /**
+         * @return the next line without its terminator, null at the end of the log
+         */
+        String readLine() throws IOException;
+
+        /**
+         * Bytes of the log consumed so far.
+         */
+        long getOffset();
+    }
+
+    /**
+     * Scans the log and writes the report. The report writer is closed once the report is
+     * complete, the log stream is left to the caller.
+     *
+     * @return the number of query records written
+     */
+    public int run(InputStream log, Charset charset, Writer report) throws IOException, InterruptedException {
+        return run(log, charset, report, new ScanMetrics());
+    }
+
+    /**
+     * Like {@link #run(InputStream, Charset, Writer)}, recording how long each stage took into
+     * the given metrics.
+     */
+    public int run(InputStream log, Charset charset, Writer report, ScanMetrics metrics)
+            throws IOException, InterruptedException {
+        QueryReportWriter writer = new QueryReportWriter(report);
+        run(new LogLineReader(log, charset, 0, null), writer, new QueryLogAssembler.State(), metrics);
+        writer.close();
+        return writer.getCount();
+    }
+
+    /**
+     * Scans the lines, continuing from the given assembler state and appending to the given
+     * report. The writer is flushed but left open, and the state is left as it was after
+     * the last line, so a later scan of what gets appended to the log can carry on.
+     *
+     * @return the number of query records added to the report
+     */
+    public int run(final LineSource in, final QueryReportWriter writer, QueryLogAssembler.State state,
+            final ScanMetrics metrics) throws IOException, InterruptedException {
+        final int initialCount = writer.getCount();
+        final BlockingQueue<Future<LineBatch>> parsed = new ArrayBlockingQueue<Future<LineBatch>>(queueDepth);
+        final BlockingQueue<List<QueryRecord>> finished = new ArrayBlockingQueue<List<QueryRecord>>(queueDepth);
+        final ExecutorService parsers = Executors.newFixedThreadPool(parseThreads, new StageThreadFactory("parse"));
+        final ScanMetrics.Phase read = metrics.phase(ScanMetrics.READ);
+        final ScanMetrics.Phase match = metrics.phase(ScanMetrics.MATCH);
+        final ScanMetrics.Phase assemble = metrics.phase(ScanMetrics.ASSEMBLE);
+        final ScanMetrics.Phase extract = metrics.phase(ScanMetrics.EXTRACT);
+        final ScanMetrics.Phase serialize = metrics.phase(ScanMetrics.SERIALIZE);
+        failure = null;
+        metrics.start();
+
+        Thread reader = new StageThread("read") {
+            void runStage() throws Exception {
+                LineClassifier classifier = new LineClassifier();
+                LineBatch batch = new LineBatch(batchSize);
+                long offset = in.getOffset();
+                long allocated = ScanMetrics.allocatedBytes();
+                long start = System.nanoTime();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (batch.add(line)) {
+                        read.add(System.nanoTime() - start, batch.size, in.getOffset() - offset, 1,
+                                ScanMetrics.allocatedBytes() - allocated);
+                        put(parsed, parsers.submit(classify(classifier, batch, match)), read);
+                        batch = new LineBatch(batchSize);
+                        offset = in.getOffset();
+                        allocated = ScanMetrics.allocatedBytes();
+                        start = System.nanoTime();
+                    }
+                }
+                read.add(System.nanoTime() - start, batch.size, in.getOffset() - offset, batch.isEmpty() ? 0 : 1,
+                        ScanMetrics.allocatedBytes() - allocated);
+                if (!batch.isEmpty()) {
+                    put(parsed, parsers.submit(classify(classifier, batch, match)), read);
+                }
+                put(parsed, END_OF_LOG, read);
+            }
+        };
+
+        Thread serializer = new StageThread("write") {
+            void runStage() throws Exception {
+                List<QueryRecord> records;
+                while ((records = take(finished, serialize)) != END_OF_RECORDS) {
+                    int assembled = records.size();
+                    if (!listeners.isEmpty()) {
+                        long allocated = ScanMetrics.allocatedBytes();
+                        long start = System.nanoTime();
+                        for (QueryRecord record : records) {
+                            for (QueryLogAssembler.Handler listener : listeners) {
+                                listener.onRecord(record);
+                            }
+                        }
+                        extract.add(System.nanoTime() - start, 0, 0, records.size(),
+                                ScanMetrics.allocatedBytes() - allocated);
+                    }
+                    long written = writer.getCharsWritten();
+                    long allocated = ScanMetrics.allocatedBytes();
+                    long start = System.nanoTime();
+                    for (QueryRecord record : records) {
+                        writer.write(record);
+                    }
+                    serialize.add(System.nanoTime() - start, 0, writer.getCharsWritten() - written, records.size(),
+                            ScanMetrics.allocatedBytes() - allocated);
+                    metrics.buffered(-assembled);
+                }
+                long written = writer.getCharsWritten();
+                long start = System.nanoTime();
+                writer.flush();
+                serialize.add(System.nanoTime() - start, 0, writer.getCharsWritten() - written, 0, 0);
+            }
+        };
+
+        RecordCollector collector = new RecordCollector();
+        QueryLogAssembler assembler = new QueryLogAssembler(collector, state, filter);
+
+        reader.start();
+        serializer.start();
+        try {
+            Future<LineBatch> next;
+            while ((next = take(parsed, assemble)) != END_OF_LOG) {
+                LineBatch batch = get(next);
+                long allocated = ScanMetrics.allocatedBytes();
+                long start = System.nanoTime();
+                assembler.accept(batch);
+                assemble.add(System.nanoTime() - start, batch.size, 0, collector.records.size(),
+                        ScanMetrics.allocatedBytes() - allocated);
+                if (!collector.records.isEmpty()) {
+                    metrics.buffered(collector.records.size());
+                    put(finished, collector.records, assemble);
+                    collector.records = new ArrayList<QueryRecord>();
+                }
+            }
+            put(finished, END_OF_RECORDS, assemble);
+            serializer.join();
+            checkFailure();
+            metrics.stop();
+            metrics.setStatements(assembler.getStatements());
+            return writer.getCount() - initialCount;
+        } finally {
+            if (failure == null) {
+                // Stops whichever stage is still running if we got here by an exception.
+                failure = new InterruptedException("SQL log scan aborted");
+            }
+            parsers.shutdownNow();
+            reader.interrupt();
+            serializer.interrupt();
+            reader.join();
+            serializer.join();
+        }
+    }
+
+    private static Callable<LineBatch> classify(final LineClassifier classifier, final LineBatch batch,
+            final ScanMetrics.Phase match) {
+        return new Callable<LineBatch>() {
+            public LineBatch call() {
+                long allocated = ScanMetrics.allocatedBytes();
+                long start = System.nanoTime();
+                classifier.classify(batch);
+                match.add(System.nanoTime() - start, batch.size, 0, 1, ScanMetrics.allocatedBytes() - allocated);
+                return batch;
+            }
+        };
+    }
+
+    private LineBatch get(Future<LineBatch> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+            checkFailure();
+            return null;
+        }
+    }
+
+    /**
+     * Queues an item, giving up if another stage has failed in the meantime.
+     */
+    private <T> void put(BlockingQueue<T> queue, T item, ScanMetrics.Phase waiting)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+        waiting.waited(System.nanoTime() - start);
+    }
+
+    /**
+     * Takes the next item, giving up if another stage has failed in the meantime.
+     */
+    private <T> T take(BlockingQueue<T> queue, ScanMetrics.Phase waiting) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        T item;
+        while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure();
+        }
+        waiting.waited(System.nanoTime() - start);
+        return item;
+    }
+
+    private void checkFailure() throws IOException, InterruptedException {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof InterruptedException) {
+            throw (InterruptedException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        IOException e = new IOException("SQL log scan failed: " + t);
+        e.initCause(t);
+        throw e;
+    }
+
+    /**
+     * Gathers the records completed by one batch so they are handed to the writer together.
+     */
+    private static final class RecordCollector implements QueryLogAssembler.Handler {
+        List<QueryRecord> records = new ArrayList<QueryRecord>();
+
+        public void onRecord(QueryRecord record) {
+            records.add(record);
+        }
+    }
+
+    private abstract class StageThread extends Thread {
+        StageThread(String stage) {
+            super("SQLParser " + stage);
+            setDaemon(true);
+        }
+
+        abstract void runStage() throws Exception;
+
+        @Override
+        public final void run() {
+            try {
+                runStage();
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+            }
+        }
+    }
+
+    private static final class StageThreadFactory implements ThreadFactory {
+        private final String stage;
+
+        StageThreadFactory(String stage) {
+            this.stage = stage;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SQLParser " + stage);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package sqlparser;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.tasks.BuildWrapper;
+import hudson.tasks.BuildWrapperDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the container log while the build is still running, for the {@link SQLParser}
+ * publisher of the same project to pick up, so the publish step only has to parse the
+ * last records and archive the report.
+ *
+ * <p>Only logs in a workspace on the master can be followed; otherwise the publisher
+ * parses the log as usual.
+ */
+public class SQLLogTailer extends BuildWrapper {
+    /**
+     * Scans running for builds whose publisher has not collected them yet.
+     */
+    private static final Map<AbstractBuild<?, ?>, LogTailer> RUNNING = new HashMap<AbstractBuild<?, ?>, LogTailer>();
+
+    private static final int DEFAULT_POLL_MILLIS = 1000;
+
+    /**
+     * How long to wait at the end of the log before looking for more. 0 means the default.
+     */
+    private final int pollMillis;
+
+    @DataBoundConstructor
+    public SQLLogTailer(int pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    public int getPollMillis() {
+        return pollMillis;
+    }
+
+    @Override
+    public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener)
+            throws IOException, InterruptedException {
+        SQLParser publisher = (SQLParser) build.getProject().getPublishersList().get(SQLParser.class);
+        if (publisher == null) {
+            listener.getLogger().println("[SQLParser] No SQL report is published, not following the log");
+            return new Environment() {};
+        }
+        FilePath log = build.getWorkspace().child(
+                SQLParser.resolveParametersInString(build, listener, publisher.getReportTarget().getReportFile()));
+        if (log.isRemote()) {
+            listener.getLogger().println("[SQLParser] " + log + " is not on the master, it will be parsed after the build");
+            return new Environment() {};
+        }
+
+        if (publisher.getIncremental()) {
+            listener.getLogger().println("[SQLParser] The log is followed while the build runs, so it is parsed in full"
+                    + " rather than incrementally");
+        }
+        File scratch = SQLParser.createScratchDir(build);
+        LogScan scan = publisher.getScanSettings().newScan(scratch, null, Charset.defaultCharset());
+        scan.setParseCache(publisher.loadParseCache(build.getProject()));
+        LogTailer tailer = new LogTailer(new File(log.getRemote()), scan, pollMillis > 0 ? pollMillis : DEFAULT_POLL_MILLIS);
+        synchronized (RUNNING) {
+            RUNNING.put(build, tailer);
+        }
+        tailer.start();
+        listener.getLogger().println("[SQLParser] Following " + log);
+
+        return new Environment() {
+            @Override
+            public boolean tearDown(AbstractBuild build, BuildListener listener) {
+                // Whatever the build steps wrote is in the log by now; the scan finishes
+                // as soon as it has caught up, whether or not the publisher is waiting yet.
+                LogTailer running;
+                synchronized (RUNNING) {
+                    running = RUNNING.get(build);
+                }
+                if (running != null) {
+                    running.stop();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Hands the scan running for the build over to its publisher, or null if there is none.
+     */
+    static LogTailer collect(AbstractBuild<?, ?> build) {
+        synchronized (RUNNING) {
+            return RUNNING.remove(build);
+        }
+    }
+
+    /**
+     * Stops the scans of builds that ended before their publisher collected them.
+     */
+    @Extension
+    public static class Cleanup extends RunListener<AbstractBuild> {
+        public Cleanup() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild build, TaskListener listener) {
+            LogTailer tailer = collect(build);
+            if (tailer == null) {
+                return;
+            }
+            try {
+                tailer.discard();
+                Util.deleteRecursive(tailer.getScan().getOutputDir());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                e.printStackTrace(listener.error("[SQLParser] Failed to clean up after following the log"));
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends BuildWrapperDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Parse the SQL log while the build runs";
+        }
+
+        @Override
+        public boolean isApplicable(AbstractProject<?, ?> item) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package sqlparser;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Exposes the {@link ScanMetrics} of a build's SQL report step through the remote API,
+ * e.g. <code>job/foo/42/sqlMetrics/api/json</code>, so throughput can be tracked across builds.
+ *
+ * <p>The throughput of a log parsed live, while the build was running, depends on how fast
+ * the build wrote it, so such metrics are marked and left out of the comparison with
+ * earlier builds. Other scans are only compared with recent builds scanned in the same
+ * {@link ScanMode}.
+ */
+@ExportedBean
+public class SQLMetricsAction implements Action {
+    /**
+     * How many builds back to look for metrics to compare with.
+     */
+    static final int MAX_PREVIOUS_BUILDS = 5;
+
+    private final ScanMetrics metrics;
+    private final boolean live;
+    /**
+     * Null in metrics recorded before the mode was, which are not compared.
+     */
+    private final ScanMode mode;
+
+    /**
+     * @param live whether the log was parsed while the build was running, see {@link SQLLogTailer}
+     */
+    public SQLMetricsAction(ScanMetrics metrics, ScanMode mode, boolean live) {
+        this.metrics = metrics;
+        this.mode = mode;
+        this.live = live;
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "SQL Parse Metrics";
+    }
+
+    public String getUrlName() {
+        return "sqlMetrics";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Exported
+    public boolean isLive() {
+        return live;
+    }
+
+    public ScanMode getMode() {
+        return mode;
+    }
+
+    @Exported
+    public double getSamplePercent() {
+        return mode == null ? 100 : mode.getSamplePercent();
+    }
+
+    @Exported
+    public boolean isIncremental() {
+        return mode != null && mode.isIncremental();
+    }
+
+    @Exported
+    public boolean isCached() {
+        return mode != null && mode.isCached();
+    }
+
+    @Exported
+    public long getWallMillis() {
+        return metrics.getWallMillis();
+    }
+
+    @Exported
+    public int getStatements() {
+        return metrics.getStatements();
+    }
+
+    @Exported
+    public double getStatementsPerSecond() {
+        return metrics.getStatementsPerSecond();
+    }
+
+    @Exported
+    public int getPeakBufferedRecords() {
+        return metrics.getPeakBufferedRecords();
+    }
+
+    @Exported
+    public Map<String, Map<String, Long>> getPhases() {
+        Map<String, Map<String, Long>> phases = new LinkedHashMap<String, Map<String, Long>>();
+        for (ScanMetrics.Phase phase : metrics.getPhases()) {
+            Map<String, Long> values = new LinkedHashMap<String, Long>();
+            values.put("busyMillis", phase.getBusyMillis());
+            values.put("waitMillis", phase.getWaitMillis());
+            values.put("lines", phase.getLines());
+            values.put("bytes", phase.getBytes());
+            values.put("items", phase.getItems());
+            values.put("allocatedBytes", phase.getAllocatedBytes());
+            phases.put(phase.getName(), values);
+        }
+        return phases;
+    }
+
+    /**
+     * Finds the metrics of the closest of the last {@link #MAX_PREVIOUS_BUILDS} builds that
+     * parsed its log after it ran, in the given mode.
+     */
+    public static SQLMetricsAction previous(AbstractBuild<?, ?> build, ScanMode mode) {
+        AbstractBuild<?, ?> b = build.getPreviousBuild();
+        for (int i = 0; i < MAX_PREVIOUS_BUILDS && b != null; i++, b = b.getPreviousBuild()) {
+            SQLMetricsAction action = b.getAction(SQLMetricsAction.class);
+            if (action != null && !action.isLive() && mode.equals(action.getMode())) {
+                return action;
+            }
+        }
+        return null;
+    }
+}
@@ -27,8 +27,11 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Util;
-import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixAggregatable;
+import hudson.matrix.MatrixAggregator;
+import hudson.matrix.MatrixBuild;
 import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
 import hudson.model.*;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
@@ -45,12 +48,12 @@ import javax.servlet.ServletException;
 import org.json.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
 
 /**
  * Saves HTML reports for the project and publishes them.
@@ -58,26 +61,212 @@ import java.util.regex.Pattern;
  * @author Kohsuke Kawaguchi
  * @author Mike Rooney
  */
-public class SQLParser extends Recorder {
+public class SQLParser extends Recorder implements MatrixAggregatable {
+    /**
+     * Name of the phase timings written next to the report.
+     */
+    public static final String METRICS_FILE = "sql_metrics.json";
+
+    /**
+     * Name of the schema/table/column summary written next to the report.
+     */
+    public static final String SUMMARY_FILE = LogScan.SUMMARY_FILE;
+
+    /**
+     * Name of the counts of statements missing from the schema summary, by reason.
+     */
+    public static final String FAILURES_FILE = LogScan.FAILURES_FILE;
+
+    /**
+     * Name of the ranked candidate indexes.
+     */
+    public static final String INDEXES_FILE = LogScan.INDEXES_FILE;
+
+    /**
+     * Name of the distinct result sets the report's resultsHash fields refer to.
+     */
+    public static final String RESULT_SETS_FILE = LogScan.RESULT_SETS_FILE;
+
+    /**
+     * Name of the recorded results index served by {@link ReplayServer}.
+     */
+    public static final String REPLAY_FILE = LogScan.REPLAY_FILE;
+
+    /**
+     * Name of the estimates of a sampled scan.
+     */
+    public static final String SAMPLE_FILE = LogScan.SAMPLE_FILE;
+
+    /**
+     * Name of the per-URL connection statistics.
+     */
+    public static final String CONNECTIONS_FILE = LogScan.CONNECTIONS_FILE;
+
+    /**
+     * Name of the statements per time bucket.
+     */
+    public static final String TIMELINE_FILE = LogScan.TIMELINE_FILE;
+
+    /**
+     * Directory under the project where the checkpoints of incremental scans are kept,
+     * one subdirectory per log.
+     */
+    private static final String CHECKPOINTS_DIR = "sqlparser-checkpoints";
+
+    /**
+     * File under the project where the {@link ParseCache} is kept.
+     */
+    private static final String PARSE_CACHE_FILE = "sqlparser-parse-cache.bin";
+
+    /**
+     * Fraction by which statements/s may drop from one build to the next before we warn.
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.25;
+
     private final HtmlPublisherTarget reportTarget;
 
+    /**
+     * Tuning of the log scan, see {@link SQLLogPipeline}. 0 means the default.
+     */
+    private final int parseThreads;
+    private final int batchSize;
+    private final int queueDepth;
+
+    /**
+     * Whether to keep a checkpoint of the scan so the next build only parses what was
+     * appended to the log, see {@link LogScan}.
+     */
+    private final boolean incremental;
+
+    /**
+     * Percentage of the statements to process in full, see {@link StatementSampler}.
+     * 0 or 100 processes every statement.
+     */
+    private final double samplePercent;
+
+    /**
+     * Width of the buckets of the statement timeline, in seconds, see
+     * {@link StatementTimeline}. 0 means one minute.
+     */
+    private final int timelineSeconds;
+
+    /**
+     * Time zone ID the log timestamps were written in, see {@link LogTimestamp}. Blank
+     * means the default zone of the JVM reading the log.
+     */
+    private final String timeZone;
+
+    /**
+     * Whether to keep what was parsed out of each statement shape for the next builds,
+     * see {@link ParseCache}.
+     */
+    private final boolean cacheParses;
+
     @DataBoundConstructor
-    public SQLParser(String reportName, String reportDir, String reportFile, boolean keepAll, boolean allowMissing) {
+    public SQLParser(String reportName, String reportDir, String reportFile, boolean keepAll, boolean allowMissing,
+            int parseThreads, int batchSize, int queueDepth, boolean incremental, double samplePercent,
+            int timelineSeconds, String timeZone, boolean cacheParses) {
         this.reportTarget = new HtmlPublisherTarget(reportName, reportDir, reportFile, keepAll, allowMissing);
+        this.parseThreads = parseThreads;
+        this.batchSize = batchSize;
+        this.queueDepth = queueDepth;
+        this.incremental = incremental;
+        this.samplePercent = samplePercent;
+        this.timelineSeconds = timelineSeconds;
+        this.timeZone = Util.fixEmptyAndTrim(timeZone);
+        this.cacheParses = cacheParses;
     }
     
     public HtmlPublisherTarget getReportTarget() {
         return this.reportTarget;
     }
 
-    private static void writeFile(ArrayList<String> lines, File path) throws IOException {
-        BufferedWriter bw = new BufferedWriter(new FileWriter(path));
-        for (int i = 0; i < lines.size(); i++) {
-            bw.write(lines.get(i));
-            bw.newLine();
+    public int getParseThreads() {
+        return this.parseThreads;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public boolean getIncremental() {
+        return this.incremental;
+    }
+
+    public double getSamplePercent() {
+        return this.samplePercent;
+    }
+
+    public int getTimelineSeconds() {
+        return this.timelineSeconds;
+    }
+
+    public String getTimeZone() {
+        return this.timeZone;
+    }
+
+    public boolean getCacheParses() {
+        return this.cacheParses;
+    }
+
+    /**
+     * The project's parse cache if parses are cached, otherwise null.
+     */
+    ParseCache loadParseCache(AbstractProject<?, ?> project) throws IOException {
+        if (!cacheParses) {
+            return null;
+        }
+        return ParseCache.load(new File(project.getRootDir(), PARSE_CACHE_FILE), ParseCache.DEFAULT_MAX_UNUSED_BUILDS,
+                ParseCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * The scan tuning and outputs configured for the job.
+     */
+    ScanSettings getScanSettings() {
+        TimeZone zone;
+        try {
+            zone = ScanSettings.zone(timeZone);
+        } catch (IllegalArgumentException e) {
+            // flagged on the configuration page
+            zone = null;
+        }
+        return new ScanSettings(parseThreads, batchSize, queueDepth, samplePercent / 100, timelineSeconds * 1000L,
+                zone);
+    }
+
+    /**
+     * Creates an empty directory in the build's directory for the outputs of a scan, which
+     * are only moved to the archive once the scan has succeeded.
+     */
+    static File createScratchDir(AbstractBuild<?, ?> build) throws IOException {
+        File scratch = File.createTempFile("sqlparser", "", build.getRootDir());
+        if (!scratch.delete() || !scratch.mkdir()) {
+            throw new IOException("Could not create " + scratch);
+        }
+        return scratch;
+    }
+
+    private static void moveFile(File from, File to) throws IOException {
+        to.delete();
+        if (from.renameTo(to)) {
+            return;
+        }
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                Util.copyStream(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
         }
-        bw.close();
-        return;
     }
 
     public ArrayList<String> readFile(String filePath) throws java.io.FileNotFoundException,
@@ -146,85 +335,92 @@ public class SQLParser extends Recorder {
     	
     	listener.getLogger().println(reportTarget);
     	listener.getLogger().println(reportTarget.getKeepAll());
-    	boolean keepAll = this.reportTarget.getKeepAll();
-        ArrayList<String> reportLines = new ArrayList<String>();
-
         //Grab the contents of the header and footer as arrays
         FilePath archiveDir = build.getWorkspace().child(resolveParametersInString(build, listener, this.reportTarget.getReportDir()));
-        FilePath cargoLog = build.getWorkspace().child(resolveParametersInString(build, listener, this.reportTarget.getReportFile()));
+        final FilePath cargoLog = build.getWorkspace().child(resolveParametersInString(build, listener, this.reportTarget.getReportFile()));
         FilePath targetDir = this.reportTarget.getArchiveTarget(build);
         
     	listener.getLogger().println(cargoLog.getBaseName());
-        try{
-	        BufferedReader in = new BufferedReader(new InputStreamReader(cargoLog.read()));
-	        String line = null;
-	        
-	        String nextType = "";
-	        String connection = "";
-	        String query = "";
-	        ArrayList<String> results = new ArrayList<String>(); 
-	        
-	        boolean printNext = false;
-	        Pattern connectionPattern = Pattern.compile("jdbcds.*ConnectionLogger");
-	        Pattern statementPattern = Pattern.compile("jdbcds.*StatementLogger");
-	        Pattern resultPattern = Pattern.compile("jdbcds.*ResultSetLogger");
-	        Pattern totalPattern = Pattern.compile("Total of (.*) rows read");
-	        
-	        JSONObject queries = new JSONObject();
-	        
-	        while((line = in.readLine()) != null) {
-	        	Matcher connectionMatcher = connectionPattern.matcher(line);
-	        	Matcher statementMatcher = statementPattern.matcher(line);
-	        	Matcher resultMatcher = resultPattern.matcher(line);
-	        	Matcher totalMatcher = totalPattern.matcher(line);
-	        	
-	            if(printNext) {
-	                if(nextType == "statement" && totalMatcher.find()){
-	                	JSONObject queryObj = new JSONObject();
-	                	
-	                	queryObj.put("connection", connection);
-	                	queryObj.put("query", query);
-	                	queryObj.put("results", results);
-	                	queryObj.put("total", totalMatcher.group(1));
-	                	
-	                	if(queries.isNull("queries")){
-	                		queries.put("queries", new JSONArray());
-	                	}
-
-	                	queries.append("queries", queryObj);
-	                    results.clear();
-	                } else if (nextType == "statement") {
-	                    query = line.substring(6);
-	                } else if (nextType == "connection") {
-	                    connection = line.substring(6);
-	                } else if (nextType == "result") {
-	                	String result = line.substring(31);
-	                	result = result.substring(0, result.length()-1);
-	                    results.add(result);
-	                }
-	            }
-	            
-	            if (connectionMatcher.find()) {
-	                printNext = true;
-	                nextType = "connection";
-	            } else if (statementMatcher.find()) {
-	                printNext = true;
-	                nextType = "statement";
-	            }  else if (resultMatcher.find()) {
-	                printNext = true;
-	                nextType = "result";
-	            }
-	            else {
-	                printNext = false;
-	            }
-	        }
-	        
-	        reportLines.add(queries.toString(4));
-        } catch (Exception e) {
-        	e.printStackTrace(listener.fatalError("HTML Publisher failure"));
-        	return false;
+        LogTailer live = SQLLogTailer.collect(build);
+        File scratch = null;
+        try {
+            LogScan scan;
+            try {
+                if (live != null && !live.getLog().equals(new File(cargoLog.getRemote()))) {
+                    listener.getLogger().println("[SQLParser] " + live.getLog() + " was followed instead of " + cargoLog);
+                    live.discard();
+                    Util.deleteRecursive(live.getScan().getOutputDir());
+                    live = null;
+                }
+                if (live != null) {
+                    listener.getLogger().println("[SQLParser] Finishing the parse started while the build ran");
+                    scratch = live.getScan().getOutputDir();
+                    scan = live.finish();
+                    if (live.getRotations() > 0) {
+                        listener.getLogger().println("[SQLParser] The log was rotated " + live.getRotations() + " times");
+                    }
+                } else {
+                    scratch = createScratchDir(build);
+                    File checkpoints = null;
+                    if (incremental) {
+                        String log = QueryRecord.hash(Collections.singletonList(cargoLog.getRemote()));
+                        checkpoints = new File(new File(build.getProject().getRootDir(), CHECKPOINTS_DIR), log);
+                    }
+                    scan = getScanSettings().newScan(scratch, checkpoints, Charset.defaultCharset());
+                    scan.setParseCache(loadParseCache(build.getProject()));
+                    scan.run(new LogScan.LogSource() {
+                        public InputStream open() throws IOException, InterruptedException {
+                            return cargoLog.read();
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                e.printStackTrace(listener.fatalError("HTML Publisher failure"));
+                return false;
+            }
+
+            ParseCache cache = scan.getParseCache();
+            if (cache != null) {
+                listener.getLogger().println("[SQLParser] " + cache.getHits() + " of " + cache.getLookups()
+                        + " statements taken from the parse cache, " + cache.getAdded() + " new statement shapes parsed, "
+                        + cache.getUncacheable() + " statements of shapes that cannot be cached");
+                if (!cache.isPayingOff()) {
+                    listener.getLogger().println("[SQLParser] WARNING: the parse cache checked more new statement shapes"
+                            + " than it saved parses, the statements of this job rarely repeat");
+                }
+                if (cache.isFull()) {
+                    listener.getLogger().println("[SQLParser] WARNING: the parse cache is full at "
+                            + cache.getMaxEntries() + " statement shapes, the others were parsed every time");
+                }
+                try {
+                    cache.save();
+                } catch (IOException e) {
+                    // only the next build gets slower
+                    listener.getLogger().println("[SQLParser] Could not save the parse cache: " + e.getMessage());
+                }
+            }
+            for (String line : scan.summary()) {
+                listener.getLogger().println("[SQLParser] " + line);
+            }
+            boolean result = archive(build, listener, archiveDir, targetDir, scan, scratch);
+            publishMetrics(build, listener, targetDir, scan.getMetrics(), ScanMode.of(scan), live != null);
+            return result;
+        } finally {
+            if (scratch != null) {
+                try {
+                    Util.deleteRecursive(scratch);
+                } catch (IOException e) {
+                    e.printStackTrace(listener.error("Failed to delete " + scratch));
+                }
+            }
         }
+    }
 
+    private boolean archive(AbstractBuild<?, ?> build, BuildListener listener, FilePath archiveDir, FilePath targetDir,
+            LogScan scan, File scratch) throws InterruptedException {
+        boolean keepAll = this.reportTarget.getKeepAll();
         String levelString = keepAll ? "BUILD" : "PROJECT"; 
         listener.getLogger().println("[SQLParser] Archiving at " + levelString + " level " + archiveDir + " to " + targetDir);
 
@@ -250,7 +446,10 @@ public class SQLParser extends Recorder {
                 targetDir.deleteRecursive();
             }
 
-            if (archiveDir.copyRecursiveTo("**/*", targetDir) == 0) {
+            long start = System.nanoTime();
+            int copied = archiveDir.copyRecursiveTo("**/*", targetDir);
+            scan.getMetrics().phase(ScanMetrics.COPY).add(System.nanoTime() - start, 0, 0, copied, -1);
+            if (copied == 0) {
                 listener.error("Directory '" + archiveDir + "' exists but failed copying to '" + targetDir + "'.");
                 if (build.getResult().isBetterOrEqualTo(Result.UNSTABLE)) {
                     // If the build failed, don't complain that there was no coverage.
@@ -272,7 +471,14 @@ public class SQLParser extends Recorder {
             if(archiveDir.exists())
             {
                 this.reportTarget.handleAction(build);
-                writeFile(reportLines, new File(targetDir.getRemote(), this.reportTarget.getWrapperName()));
+                moveFile(scan.getReport(), new File(targetDir.getRemote(), this.reportTarget.getWrapperName()));
+                for (String name : new String[] { RESULT_SETS_FILE, SUMMARY_FILE, INDEXES_FILE, REPLAY_FILE,
+                        SAMPLE_FILE, CONNECTIONS_FILE, TIMELINE_FILE }) {
+                    File file = new File(scratch, name);
+                    if (file.exists()) {
+                        moveFile(file, new File(targetDir.getRemote(), name));
+                    }
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -280,23 +486,84 @@ public class SQLParser extends Recorder {
         return true;
     }
 
+    /**
+     * Prints the phase timings, records them on the build and warns if throughput dropped
+     * noticeably compared to a recent build scanned in the same mode. The throughput of a
+     * scan that followed the log during the build says more about the build than the
+     * parser, so it is recorded as live and not compared.
+     */
+    private void publishMetrics(AbstractBuild<?, ?> build, BuildListener listener, FilePath targetDir,
+            ScanMetrics metrics, ScanMode mode, boolean live) {
+        for (String line : metrics.summary()) {
+            listener.getLogger().println("[SQLParser] " + line);
+        }
+        if (!live) {
+            SQLMetricsAction previous = SQLMetricsAction.previous(build, mode);
+            if (previous != null && previous.getStatementsPerSecond() > 0 && metrics.getStatements() > 0
+                    && metrics.getStatementsPerSecond() < previous.getStatementsPerSecond() * (1 - THROUGHPUT_TOLERANCE)) {
+                listener.getLogger().println(String.format(
+                        "[SQLParser] WARNING: throughput dropped from %.1f to %.1f statements/s since the last build"
+                                + " scanned the same way (%s)", previous.getStatementsPerSecond(),
+                        metrics.getStatementsPerSecond(), mode));
+            }
+        }
+        build.addAction(new SQLMetricsAction(metrics, mode, live));
+        writeMetrics(listener, targetDir, metrics);
+    }
+
+    private static void writeMetrics(BuildListener listener, FilePath targetDir, ScanMetrics metrics) {
+        try {
+            if (targetDir.exists()) {
+                targetDir.child(METRICS_FILE).write(metrics.toJSON().toString(4), null);
+            }
+        } catch (Exception e) {
+            e.printStackTrace(listener.error("Failed to write " + METRICS_FILE));
+        }
+    }
+
     @Override
     public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> project) {
         ArrayList<Action> actions = new ArrayList<Action>();
         actions.add(reportTarget.getProjectAction(project));
-        if (project instanceof MatrixProject && ((MatrixProject) project).getActiveConfigurations() != null){
-            for (MatrixConfiguration mc : ((MatrixProject) project).getActiveConfigurations()){
-                try {
-                  mc.onLoad(mc.getParent(), mc.getName());
-                }
-                catch (IOException e){
-                    //Could not reload the configuration.
-                }
-            }
+        if (project instanceof MatrixProject) {
+            actions.add(new MatrixSQLProjectAction((MatrixProject) project));
         }
         return actions;
     }
 
+    /**
+     * Collects the per-configuration summaries once the whole matrix build is done,
+     * so the project page can show them without reloading any configuration.
+     */
+    public MatrixAggregator createAggregator(final MatrixBuild build, Launcher launcher, BuildListener listener) {
+        return new MatrixAggregator(build, launcher, listener) {
+            private final List<MatrixSQLReportAction.Summary> summaries = new ArrayList<MatrixSQLReportAction.Summary>();
+
+            @Override
+            public boolean endRun(MatrixRun run) {
+                SQLMetricsAction metrics = run.getAction(SQLMetricsAction.class);
+                if (metrics != null) {
+                    ReportSummary report = null;
+                    File dir = new File(reportTarget.getArchiveTarget(run).getRemote());
+                    try {
+                        report = ReportSummary.read(dir);
+                    } catch (IOException e) {
+                        e.printStackTrace(listener.error("[SQLParser] Could not summarize the SQL report in " + dir));
+                    }
+                    summaries.add(new MatrixSQLReportAction.Summary(run.getParent().getCombination().toString(),
+                            run.getNumber(), metrics, report));
+                }
+                return true;
+            }
+
+            @Override
+            public boolean endBuild() {
+                build.addAction(new MatrixSQLReportAction(summaries));
+                return true;
+            }
+        };
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
         @Override
@@ -314,6 +581,15 @@ public class SQLParser extends Recorder {
 //            return ws != null ? ws.validateRelativeDirectory(value) : FormValidation.ok();
 //        }
 
+        public FormValidation doCheckTimeZone(@QueryParameter String value) {
+            try {
+                ScanSettings.zone(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.warning(e.getMessage() + ", the default zone is used");
+            }
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> jobType) {
             return true;
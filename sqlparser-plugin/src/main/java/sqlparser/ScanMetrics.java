@@ -0,0 +1,235 @@
+package sqlparser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Timing and throughput of one scan of a container log, broken down per phase.
+ *
+ * <p>Phases may be fed from several threads at once; each keeps the busy time spent in
+ * it, the time spent blocked on a neighbouring stage, and what it processed.
+ */
+public final class ScanMetrics {
+    public static final String READ = "read";
+    public static final String MATCH = "match";
+    public static final String ASSEMBLE = "assemble";
+    public static final String EXTRACT = "extract";
+    public static final String SERIALIZE = "serialize";
+    public static final String COPY = "copy";
+
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private long wallNanos;
+    private int statements;
+    private int bufferedRecords;
+    private int peakBufferedRecords;
+
+    private transient long startNanos;
+
+    public ScanMetrics() {
+        for (String name : new String[] { READ, MATCH, ASSEMBLE, EXTRACT, SERIALIZE, COPY }) {
+            phases.put(name, new Phase(name));
+        }
+    }
+
+    public Phase phase(String name) {
+        return phases.get(name);
+    }
+
+    public List<Phase> getPhases() {
+        return new ArrayList<Phase>(phases.values());
+    }
+
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+    }
+
+    public synchronized void stop() {
+        wallNanos = System.nanoTime() - startNanos;
+    }
+
+    public synchronized long getWallMillis() {
+        return wallNanos / 1000000L;
+    }
+
+    public synchronized void setStatements(int statements) {
+        this.statements = statements;
+    }
+
+    public synchronized int getStatements() {
+        return statements;
+    }
+
+    /**
+     * Statements per second over the whole scan, from reading the first line to writing
+     * the last record.
+     */
+    public synchronized double getStatementsPerSecond() {
+        return wallNanos == 0 ? 0 : statements * 1e9 / wallNanos;
+    }
+
+    /**
+     * Tracks records handed to the writer but not serialized yet.
+     */
+    public synchronized void buffered(int delta) {
+        bufferedRecords += delta;
+        if (bufferedRecords > peakBufferedRecords) {
+            peakBufferedRecords = bufferedRecords;
+        }
+    }
+
+    public synchronized int getPeakBufferedRecords() {
+        return peakBufferedRecords;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            json.put("wallMillis", getWallMillis());
+            json.put("statements", statements);
+            json.put("statementsPerSecond", getStatementsPerSecond());
+            json.put("peakBufferedRecords", peakBufferedRecords);
+        }
+        JSONObject phaseJson = new JSONObject();
+        for (Phase phase : phases.values()) {
+            phaseJson.put(phase.getName(), phase.toJSON());
+        }
+        json.put("phases", phaseJson);
+        return json;
+    }
+
+    /**
+     * One line per phase, suitable for the build log.
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<String>();
+        lines.add(String.format("%d statements in %d ms (%.1f statements/s), at most %d records buffered",
+                getStatements(), getWallMillis(), getStatementsPerSecond(), getPeakBufferedRecords()));
+        for (Phase phase : phases.values()) {
+            lines.add(phase.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    public static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            Object bytes = ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(),
+                    Long.valueOf(Thread.currentThread().getId()));
+            return ((Long) bytes).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * getThreadAllocatedBytes is a HotSpot extension, so it is looked up reflectively.
+     */
+    private static Method allocatedBytesMethod() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            Class<?> hotspot = Class.forName("com.sun.management.ThreadMXBean");
+            if (!hotspot.isInstance(bean)) {
+                return null;
+            }
+            Method method = hotspot.getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(bean, Long.valueOf(Thread.currentThread().getId()));
+            return method;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Counters of a single phase.
+     */
+    public static final class Phase {
+        private final String name;
+        private long busyNanos;
+        private long waitNanos;
+        private long lines;
+        private long bytes;
+        private long items;
+        private long allocatedBytes;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param allocated bytes allocated while busy, negative if unknown
+         */
+        public synchronized void add(long nanos, long lines, long bytes, long items, long allocated) {
+            this.busyNanos += nanos;
+            this.lines += lines;
+            this.bytes += bytes;
+            this.items += items;
+            if (allocated > 0) {
+                this.allocatedBytes += allocated;
+            }
+        }
+
+        public synchronized void waited(long nanos) {
+            this.waitNanos += nanos;
+        }
+
+        public synchronized long getBusyMillis() {
+            return busyNanos / 1000000L;
+        }
+
+        public synchronized long getWaitMillis() {
+            return waitNanos / 1000000L;
+        }
+
+        public synchronized long getLines() {
+            return lines;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public synchronized long getItems() {
+            return items;
+        }
+
+        public synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        synchronized JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("busyMillis", getBusyMillis());
+            json.put("waitMillis", getWaitMillis());
+            json.put("lines", lines);
+            json.put("bytes", bytes);
+            json.put("items", items);
+            json.put("allocatedBytes", allocatedBytes);
+            return json;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%-10s busy %6d ms, waiting %6d ms, %9d lines, %11d bytes, %8d items, ~%d MB allocated",
+                    name, getBusyMillis(), getWaitMillis(), lines, bytes, items, allocatedBytes >> 20);
+        }
+    }
+}
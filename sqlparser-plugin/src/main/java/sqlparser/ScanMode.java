@@ -0,0 +1,69 @@
+package sqlparser;
+
+import java.io.Serializable;
+
+/**
+ * How a scan was run, as far as it changes its throughput: the share of the statements
+ * processed in full, whether it resumed from a checkpoint and only parsed what was
+ * appended, and whether the parse cache was used. Statements/s of scans run differently
+ * say nothing about the parser, so only scans of the same mode are compared.
+ */
+public final class ScanMode implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final double samplePercent;
+    private final boolean incremental;
+    private final boolean cached;
+
+    /**
+     * @param samplePercent percentage of the statements processed in full, 100 for all
+     * @param incremental whether the scan resumed from a checkpoint
+     * @param cached whether the scan used a {@link ParseCache}
+     */
+    public ScanMode(double samplePercent, boolean incremental, boolean cached) {
+        this.samplePercent = samplePercent;
+        this.incremental = incremental;
+        this.cached = cached;
+    }
+
+    /**
+     * The mode of a finished scan.
+     */
+    public static ScanMode of(LogScan scan) {
+        StatementSampler sampler = scan.getSampler();
+        return new ScanMode(sampler == null ? 100 : sampler.getFraction() * 100, scan.getResumedOffset() > 0,
+                scan.getParseCache() != null);
+    }
+
+    public double getSamplePercent() {
+        return samplePercent;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ScanMode)) {
+            return false;
+        }
+        ScanMode other = (ScanMode) o;
+        return samplePercent == other.samplePercent && incremental == other.incremental && cached == other.cached;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(samplePercent);
+        return (int) (bits ^ (bits >>> 32)) * 31 + (incremental ? 2 : 0) + (cached ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return samplePercent + "% sampled" + (incremental ? ", incremental" : "") + (cached ? ", cached" : "");
+    }
+}
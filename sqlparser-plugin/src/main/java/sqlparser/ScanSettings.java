@@ -0,0 +1,102 @@
+package sqlparser;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.TimeZone;
+
+/**
+ * How a {@link LogScan} is tuned and what it writes, whether the settings come from the
+ * {@link SQLParser} configuration of a job or from the {@link BatchScan} command line.
+ */
+public final class ScanSettings {
+    private final int parseThreads;
+    private final int batchSize;
+    private final int queueDepth;
+    private final double sampleFraction;
+    private final long timelineMillis;
+    private final TimeZone zone;
+
+    /**
+     * @param parseThreads threads matching lines, see {@link SQLLogPipeline}, 0 for the default
+     * @param batchSize lines handed over at a time, 0 for the default
+     * @param queueDepth batches each pipeline queue may hold, 0 for the default
+     * @param sampleFraction share of the statements processed in full, see {@link StatementSampler};
+     *            1 or anything outside (0, 1) processes every one
+     * @param timelineMillis width of the {@link StatementTimeline} buckets, 0 for the default
+     */
+    public ScanSettings(int parseThreads, int batchSize, int queueDepth, double sampleFraction, long timelineMillis) {
+        this(parseThreads, batchSize, queueDepth, sampleFraction, timelineMillis, null);
+    }
+
+    /**
+     * Like {@link #ScanSettings(int, int, int, double, long)}, reading the log timestamps in
+     * the given zone.
+     *
+     * @param zone the zone the log was written in, null for the default zone
+     */
+    public ScanSettings(int parseThreads, int batchSize, int queueDepth, double sampleFraction, long timelineMillis,
+            TimeZone zone) {
+        this.parseThreads = parseThreads;
+        this.batchSize = batchSize;
+        this.queueDepth = queueDepth;
+        this.sampleFraction = sampleFraction > 0 && sampleFraction < 1 ? sampleFraction : 1;
+        this.timelineMillis = timelineMillis > 0 ? timelineMillis : StatementTimeline.DEFAULT_BUCKET_MILLIS;
+        this.zone = zone != null ? zone : TimeZone.getDefault();
+    }
+
+    /**
+     * A scan writing its outputs to the given directory.
+     *
+     * @param checkpointDir directory the checkpoint is kept in, null to always parse the whole log
+     */
+    public LogScan newScan(File outputDir, File checkpointDir, Charset charset) {
+        LogScan scan = new LogScan(new SQLLogPipeline(parseThreads, batchSize, queueDepth), outputDir, checkpointDir,
+                charset);
+        scan.setSampleFraction(sampleFraction);
+        scan.setTimelineMillis(timelineMillis);
+        scan.setTimeZone(zone);
+        return scan;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+
+    public long getTimelineMillis() {
+        return timelineMillis;
+    }
+
+    public TimeZone getTimeZone() {
+        return zone;
+    }
+
+    /**
+     * The zone of a time zone ID such as "Europe/Paris" or "GMT+2", null for a blank one.
+     *
+     * @throws IllegalArgumentException if there is no such zone
+     */
+    public static TimeZone zone(String id) {
+        if (id == null || id.trim().length() == 0) {
+            return null;
+        }
+        id = id.trim();
+        TimeZone zone = TimeZone.getTimeZone(id);
+        // unknown IDs come back as GMT
+        if (zone.getID().equals("GMT") && !id.equals("GMT")) {
+            throw new IllegalArgumentException("Unknown time zone " + id);
+        }
+        return zone;
+    }
+}
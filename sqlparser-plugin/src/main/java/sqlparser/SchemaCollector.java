@@ -0,0 +1,85 @@
+package sqlparser;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Feeds every statement of the scan into a {@link QueryParser}, so the schema summary is
+ * built in the same pass over the log as the queries report.
+ */
+public final class SchemaCollector implements QueryLogAssembler.Handler, Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final QueryParser parser;
+    private int failed;
+    private final Map<ParseResult.Reason, Integer> failures = new EnumMap<ParseResult.Reason, Integer>(
+            ParseResult.Reason.class);
+
+    public SchemaCollector(QueryParser parser) {
+        this.parser = parser;
+    }
+
+    public QueryParser getParser() {
+        return parser;
+    }
+
+    public void onRecord(QueryRecord record) {
+        ParseResult result = parser.parse(record.getQuery());
+        if (!result.isSuccess()) {
+            failed++;
+            Integer count = failures.get(result.getReason());
+            failures.put(result.getReason(), count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Number of statements QueryParser could not make sense of.
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * The statements QueryParser could not make sense of, counted by why not.
+     */
+    public Map<ParseResult.Reason, Integer> getFailures() {
+        return failures;
+    }
+
+    /**
+     * The schema summary as JSON: the columns used per schema and table,
+     * <code>{}</code> if no statement could be parsed.
+     */
+    public String toJSON() {
+        JSONObject schemas = parser.getResults();
+        return schemas == null ? "{}" : schemas.toString();
+    }
+
+    /**
+     * The statements that could not be added to the schema summary as JSON: how many under
+     * <code>failed</code>, and how many for each reason under <code>reasons</code>.
+     */
+    public String failuresToJSON() throws JSONException {
+        JSONObject reasons = new JSONObject();
+        for (Map.Entry<ParseResult.Reason, Integer> entry : failures.entrySet()) {
+            reasons.put(entry.getKey().name(), entry.getValue());
+        }
+        JSONObject json = new JSONObject();
+        json.put("failed", failed);
+        json.put("reasons", reasons);
+        return json.toString(4);
+    }
+
+    /**
+     * The ranked {@link IndexAdvisor} suggestions as JSON, under <code>candidateIndexes</code>.
+     */
+    public String indexesToJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("candidateIndexes", parser.getCandidateIndexes());
+        return json.toString(4);
+    }
+}
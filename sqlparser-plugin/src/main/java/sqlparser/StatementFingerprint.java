@@ -0,0 +1,194 @@
+package sqlparser;
+
+/**
+ * The shape of a logged statement: the text with its literals taken out, so statements
+ * that only differ in their bind values have the same fingerprint.
+ *
+ * <p>String and numeric literals become <code>?</code>, a list of them such as the
+ * values of an <code>in</code> becomes a single <code>?</code>, the "; 7 ms." timing
+ * jdbcdslog appends is dropped, whitespace runs are collapsed and everything outside
+ * string literals is lower-cased.
+ */
+public final class StatementFingerprint {
+
+    private StatementFingerprint() {
+    }
+
+    public static String of(String statement) {
+        int end = timingStart(statement);
+        if (end == -1) {
+            end = statement.length();
+        }
+        StringBuilder sb = new StringBuilder(end);
+        boolean space = false;
+        int i = 0;
+        while (i < end) {
+            char c = statement.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                i++;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                i = skipString(statement, i, end);
+                literal(sb);
+            } else if (Character.isDigit(c) && !partOfName(sb)
+                    || (c == '-' || c == '.') && i + 1 < end && Character.isDigit(statement.charAt(i + 1))
+                            && !partOfName(sb)) {
+                i++;
+                while (i < end && (Character.isLetterOrDigit(statement.charAt(i)) || statement.charAt(i) == '.')) {
+                    i++;
+                }
+                literal(sb);
+            } else {
+                sb.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        int length = sb.length();
+        while (length > 0 && (sb.charAt(length - 1) == ';' || sb.charAt(length - 1) == ' ')) {
+            length--;
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * A stricter shape than {@link #of(String)}, for caching what {@link QueryParser} takes
+     * out of a statement: only the digits of literals and of the timing are replaced, each
+     * by a 0. Whitespace, case, list lengths, the length of numbers and the letters in
+     * string literals, which the parser's results can depend on, are kept.
+     */
+    public static String digitsMasked(String statement) {
+        return replaceDigits(statement, true);
+    }
+
+    /**
+     * The statement with every digit {@link #digitsMasked(String)} masks changed to
+     * another, to check whether they end up in what the parser takes out of it.
+     */
+    public static String digitsShifted(String statement) {
+        return replaceDigits(statement, false);
+    }
+
+    private static String replaceDigits(String statement, boolean mask) {
+        int end = statement.length();
+        StringBuilder sb = new StringBuilder(end);
+        boolean inString = false;
+        int i = 0;
+        while (i < end) {
+            char c = statement.charAt(i);
+            if (c == '\'') {
+                inString = !inString;
+            } else if (c >= '0' && c <= '9' && (inString || i == 0 || !isNamePart(statement.charAt(i - 1)))) {
+                while (i < end && statement.charAt(i) >= '0' && statement.charAt(i) <= '9') {
+                    sb.append(mask ? '0' : (char) ('0' + (statement.charAt(i) - '0' + 1) % 10));
+                    i++;
+                }
+                continue;
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+
+    /**
+     * The execution time jdbcdslog logged after the statement, -1 if there is none.
+     */
+    public static long millis(String statement) {
+        int start = timingStart(statement);
+        if (start == -1) {
+            return -1;
+        }
+        long millis = 0;
+        for (int i = start + 1; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            if (Character.isDigit(c)) {
+                millis = millis * 10 + (c - '0');
+            } else if (!Character.isWhitespace(c)) {
+                break;
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Index of the ';' starting a trailing "; 7 ms." timing, -1 if there is none.
+     */
+    private static int timingStart(String s) {
+        int end = s.length();
+        while (end > 0 && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0 && s.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end < 2 || !s.startsWith("ms", end - 2)) {
+            return -1;
+        }
+        int i = end - 2;
+        while (i > 0 && Character.isWhitespace(s.charAt(i - 1))) {
+            i--;
+        }
+        int digits = i;
+        while (i > 0 && Character.isDigit(s.charAt(i - 1))) {
+            i--;
+        }
+        if (i == digits) {
+            return -1;
+        }
+        while (i > 0 && Character.isWhitespace(s.charAt(i - 1))) {
+            i--;
+        }
+        return i > 0 && s.charAt(i - 1) == ';' ? i - 1 : -1;
+    }
+
+    /**
+     * Appends a placeholder, folding it into the previous one if they form a list.
+     */
+    private static void literal(StringBuilder sb) {
+        int length = sb.length();
+        if (length >= 3 && sb.charAt(length - 1) == ' ' && sb.charAt(length - 2) == ',' && sb.charAt(length - 3) == '?') {
+            sb.setLength(length - 2);
+        } else if (length >= 2 && sb.charAt(length - 1) == ',' && sb.charAt(length - 2) == '?') {
+            sb.setLength(length - 1);
+        } else {
+            sb.append('?');
+        }
+    }
+
+    private static boolean partOfName(StringBuilder sb) {
+        if (sb.length() == 0) {
+            return false;
+        }
+        char c = sb.charAt(sb.length() - 1);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+
+    /**
+     * Index just past the string literal starting at i, with '' as an escaped quote.
+     */
+    private static int skipString(String s, int i, int end) {
+        i++;
+        while (i < end) {
+            if (s.charAt(i) == '\'') {
+                if (i + 1 < end && s.charAt(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return end;
+    }
+}
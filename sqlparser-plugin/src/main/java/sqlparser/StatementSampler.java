@@ -0,0 +1,359 @@
+package sqlparser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Picks the statements a sampled scan processes in full, and estimates from them what a
+ * full scan would have measured.
+ *
+ * <p>Every statement is fingerprinted and counted, so every distinct
+ * {@link StatementFingerprint} and its exact number of executions is known. The first
+ * execution of each fingerprint is always sampled, so every shape is represented. Each
+ * later one is sampled when a hash of its text and its position in the log falls below
+ * the fraction, which is as good as an independent coin flip per execution, whatever the
+ * order the application runs its statements in, and still samples the same log the same
+ * way. The decision is taken when the statement is logged, so the rows of a statement
+ * left out are never collected. Only the sampled statements reach the report, the schema
+ * summary, the result sets and the replay index, and the report says it was sampled.
+ *
+ * <p>Total execution time and total rows are estimated per fingerprint as the first
+ * execution plus the mean of the other samples for the other executions (stratified
+ * estimation), and latency percentiles from the samples weighted by how many executions
+ * each one stands for. The 95% confidence intervals use the normal approximation with
+ * finite population correction, so a fingerprint sampled in full contributes no
+ * variance; neither does one with fewer than two samples besides its first.
+ */
+public final class StatementSampler implements QueryLogAssembler.StatementFilter, Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private static final double Z = 1.96;
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+    private final double fraction;
+    private final Map<String, Shape> shapes = new HashMap<String, Shape>();
+    private long statements;
+    private long sampled;
+    /** The statement logged last, until the next one is. */
+    private String pendingQuery;
+    private String pendingFingerprint;
+    private boolean pendingSelected;
+
+    /**
+     * @param fraction share of the statements to process, between 0 (exclusive) and 1
+     */
+    public StatementSampler(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Sampling fraction must be in (0, 1]: " + fraction);
+        }
+        this.fraction = fraction;
+    }
+
+    public double getFraction() {
+        return fraction;
+    }
+
+    public boolean select(String query) {
+        pendingQuery = query;
+        pendingFingerprint = StatementFingerprint.of(query);
+        pendingSelected = !shapes.containsKey(pendingFingerprint) || draw(query, statements) < fraction;
+        return pendingSelected;
+    }
+
+    public void completed(long rows) {
+        if (pendingFingerprint == null) {
+            return;
+        }
+        Shape shape = shapes.get(pendingFingerprint);
+        boolean first = shape == null;
+        if (first) {
+            shape = new Shape(pendingFingerprint, pendingQuery);
+            shapes.put(pendingFingerprint, shape);
+        }
+        shape.count++;
+        statements++;
+        if (pendingSelected) {
+            sampled++;
+            shape.add(first, StatementFingerprint.millis(pendingQuery), rows);
+        }
+    }
+
+    /**
+     * A number in [0, 1) that only depends on the statement and its position in the log.
+     */
+    static double draw(String query, long position) {
+        long h = query.hashCode() * 0x9e3779b97f4a7c15L + position;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return (h >>> 11) / (double) (1L << 53);
+    }
+
+    /**
+     * Number of statements seen, sampled or not.
+     */
+    public long getStatements() {
+        return statements;
+    }
+
+    public long getSampled() {
+        return sampled;
+    }
+
+    public int getFingerprints() {
+        return shapes.size();
+    }
+
+    /**
+     * Estimated total of the logged execution times, in ms, with its 95% confidence interval.
+     */
+    public Estimate getTotalMillis() {
+        return total(true);
+    }
+
+    /**
+     * Estimated total number of rows read, with its 95% confidence interval.
+     */
+    public Estimate getTotalRows() {
+        return total(false);
+    }
+
+    /**
+     * Estimated latency at the given quantile (0.5 for the median), in ms, with its 95%
+     * confidence interval, or null if no sampled statement was timed.
+     */
+    public Estimate getLatencyPercentile(double q) {
+        List<double[]> weighted = new ArrayList<double[]>();
+        double population = 0;
+        int samples = 0;
+        for (Shape shape : shapes.values()) {
+            int timed = shape.timed + (shape.firstTimed ? 1 : 0);
+            if (timed == 0) {
+                continue;
+            }
+            if (shape.timed == 0) {
+                weighted.add(new double[] { shape.firstMillis, shape.count });
+            } else {
+                double weight = (double) (shape.count - (shape.firstTimed ? 1 : 0)) / shape.timed;
+                for (int i = 0; i < shape.timed; i++) {
+                    weighted.add(new double[] { shape.millis[i], weight });
+                }
+                if (shape.firstTimed) {
+                    weighted.add(new double[] { shape.firstMillis, 1 });
+                }
+            }
+            population += shape.count;
+            samples += timed;
+        }
+        if (samples == 0) {
+            return null;
+        }
+        Collections.sort(weighted, new Comparator<double[]>() {
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        double fpc = Math.sqrt(Math.max(0, 1 - samples / population));
+        double margin = Z * Math.sqrt(q * (1 - q) / samples) * fpc;
+        return new Estimate(quantile(weighted, population, q), quantile(weighted, population, Math.max(0, q - margin)),
+                quantile(weighted, population, Math.min(1, q + margin)));
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("fraction", fraction);
+        json.put("statements", statements);
+        json.put("sampled", sampled);
+        json.put("fingerprints", shapes.size());
+        json.put("totalMillis", getTotalMillis().toJSON());
+        json.put("totalRows", getTotalRows().toJSON());
+        JSONObject latency = new JSONObject();
+        for (double q : PERCENTILES) {
+            Estimate estimate = getLatencyPercentile(q);
+            if (estimate != null) {
+                latency.put("p" + Math.round(q * 100), estimate.toJSON());
+            }
+        }
+        json.put("latencyMillis", latency);
+
+        List<Shape> ranked = new ArrayList<Shape>(shapes.values());
+        Collections.sort(ranked, new Comparator<Shape>() {
+            public int compare(Shape a, Shape b) {
+                if (a.count != b.count) {
+                    return a.count > b.count ? -1 : 1;
+                }
+                return a.fingerprint.compareTo(b.fingerprint);
+            }
+        });
+        JSONArray list = new JSONArray();
+        for (Shape shape : ranked) {
+            JSONObject entry = new JSONObject();
+            entry.put("fingerprint", shape.fingerprint);
+            entry.put("example", shape.example);
+            entry.put("count", shape.count);
+            entry.put("sampled", shape.samples + 1);
+            entry.put("estimatedMillis", shape.estimate(true).toJSON());
+            entry.put("estimatedRows", shape.estimate(false).toJSON());
+            list.put(entry);
+        }
+        json.put("statementFingerprints", list);
+        return json;
+    }
+
+    private Estimate total(boolean millis) {
+        double value = 0;
+        double variance = 0;
+        for (Shape shape : shapes.values()) {
+            value += shape.total(millis);
+            variance += shape.variance(millis);
+        }
+        double margin = Z * Math.sqrt(variance);
+        return new Estimate(value, Math.max(0, value - margin), value + margin);
+    }
+
+    private static double quantile(List<double[]> weighted, double population, double q) {
+        double target = q * population;
+        double cumulative = 0;
+        for (double[] sample : weighted) {
+            cumulative += sample[1];
+            if (cumulative >= target) {
+                return sample[0];
+            }
+        }
+        return weighted.get(weighted.size() - 1)[0];
+    }
+
+    /**
+     * A value estimated from the sample and its 95% confidence interval.
+     */
+    public static final class Estimate {
+        private final double value;
+        private final double low;
+        private final double high;
+
+        Estimate(double value, double low, double high) {
+            this.value = value;
+            this.low = low;
+            this.high = high;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public double getLow() {
+            return low;
+        }
+
+        public double getHigh() {
+            return high;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("estimate", Math.round(value * 10) / 10.0);
+            json.put("low", Math.round(low * 10) / 10.0);
+            json.put("high", Math.round(high * 10) / 10.0);
+            return json;
+        }
+    }
+
+    /**
+     * The executions of one fingerprint and the samples taken of them: the first
+     * execution, and the ones sampled after it.
+     */
+    private static final class Shape implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        final String fingerprint;
+        final String example;
+        long count;
+        long firstRows;
+        boolean firstTimed;
+        long firstMillis;
+        int samples;
+        double rowSum;
+        double rowSquares;
+        int timed;
+        long[] millis = new long[4];
+        double millisSum;
+        double millisSquares;
+
+        Shape(String fingerprint, String example) {
+            this.fingerprint = fingerprint;
+            this.example = example;
+        }
+
+        void add(boolean first, long ms, long rows) {
+            if (first) {
+                firstRows = rows;
+                firstTimed = ms >= 0;
+                firstMillis = ms;
+                return;
+            }
+            samples++;
+            rowSum += rows;
+            rowSquares += (double) rows * rows;
+            if (ms >= 0) {
+                if (timed == millis.length) {
+                    long[] longer = new long[millis.length * 2];
+                    System.arraycopy(millis, 0, longer, 0, timed);
+                    millis = longer;
+                }
+                millis[timed++] = ms;
+                millisSum += ms;
+                millisSquares += (double) ms * ms;
+            }
+        }
+
+        /**
+         * Whether the first execution counts towards the total: it always read rows, but
+         * may not have been timed.
+         */
+        private boolean firstKnown(boolean ofMillis) {
+            return !ofMillis || firstTimed;
+        }
+
+        double total(boolean ofMillis) {
+            int n = ofMillis ? timed : samples;
+            boolean firstKnown = firstKnown(ofMillis);
+            double first = ofMillis ? firstMillis : firstRows;
+            if (n == 0) {
+                return firstKnown ? count * first : 0;
+            }
+            double mean = (ofMillis ? millisSum : rowSum) / n;
+            return firstKnown ? first + (count - 1) * mean : count * mean;
+        }
+
+        /**
+         * Variance of {@link #total(boolean)}: N^2 (1 - n/N) s^2 / n, N being the executions
+         * the samples other than the first stand for.
+         */
+        double variance(boolean ofMillis) {
+            int n = ofMillis ? timed : samples;
+            if (n < 2) {
+                return 0;
+            }
+            double population = count - (firstKnown(ofMillis) ? 1 : 0);
+            double sum = ofMillis ? millisSum : rowSum;
+            double squares = ofMillis ? millisSquares : rowSquares;
+            double s2 = Math.max(0, (squares - sum * sum / n) / (n - 1));
+            return population * population * Math.max(0, 1 - n / population) * s2 / n;
+        }
+
+        Estimate estimate(boolean ofMillis) {
+            double value = total(ofMillis);
+            double margin = Z * Math.sqrt(variance(ofMillis));
+            return new Estimate(value, Math.max(0, value - margin), value + margin);
+        }
+    }
+}
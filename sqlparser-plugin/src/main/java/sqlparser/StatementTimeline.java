@@ -0,0 +1,202 @@
+package sqlparser;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Statements per fixed slice of log time: how many ran, the rows they read and a log2
+ * histogram of their logged execution times, to show when during the build the load
+ * peaked.
+ *
+ * <p>Each bucket takes the same small amount of memory however many statements fall in
+ * it. If the log spans more than {@link #MAX_BUCKETS} buckets, the width is doubled and
+ * neighbouring buckets are merged, so a log of any length fits. Statements whose marker
+ * line has no timestamp are only counted.
+ */
+public final class StatementTimeline implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final long DEFAULT_BUCKET_MILLIS = 60000;
+    public static final int MAX_BUCKETS = 2048;
+
+    private static final int LATENCY_BUCKETS = 24;
+
+    private final long requestedMillis;
+    private long bucketMillis;
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<Long, Bucket>();
+    private long untimestamped;
+    private transient long lastStart;
+    private transient Bucket last;
+
+    /**
+     * @param bucketMillis width of a bucket, in ms
+     */
+    public StatementTimeline(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketMillis);
+        }
+        this.requestedMillis = bucketMillis;
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Counts a statement.
+     *
+     * @param at when its marker line was written, -1 if unknown
+     * @param millis its logged execution time, -1 if it has none
+     * @param rows the rows it read
+     */
+    public void statement(long at, long millis, long rows) {
+        if (at < 0) {
+            untimestamped++;
+            return;
+        }
+        long begin = at - at % bucketMillis;
+        if (last != null && begin == lastStart) {
+            // the log is in time order, so most statements fall in the bucket of the last one
+            last.add(millis, rows);
+            return;
+        }
+        Long start = Long.valueOf(begin);
+        Bucket bucket = buckets.get(start);
+        if (bucket == null) {
+            if (buckets.size() == MAX_BUCKETS) {
+                widen();
+                start = Long.valueOf(at - at % bucketMillis);
+                bucket = buckets.get(start);
+            }
+            if (bucket == null) {
+                bucket = new Bucket();
+                buckets.put(start, bucket);
+            }
+        }
+        bucket.add(millis, rows);
+        lastStart = start.longValue();
+        last = bucket;
+    }
+
+    /**
+     * Width the timeline was asked for, which {@link #getBucketMillis()} may have grown from.
+     */
+    public long getRequestedMillis() {
+        return requestedMillis;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getBuckets() {
+        return buckets.size();
+    }
+
+    /**
+     * The timeline as parallel arrays, one entry per bucket that saw a statement, in time
+     * order. <code>latencyHistogram</code> has the counts per execution time range of
+     * <code>latencyMillis</code>, trailing zeros left out.
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("bucketMillis", bucketMillis);
+        json.put("untimestamped", untimestamped);
+        JSONArray ranges = new JSONArray();
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            ranges.put(i == 0 ? "0" : i == 1 ? "1" : (1L << (i - 1)) + "-" + ((1L << i) - 1));
+        }
+        ranges.put((1L << (LATENCY_BUCKETS - 1)) + "-");
+        json.put("latencyMillis", ranges);
+
+        JSONArray start = new JSONArray();
+        JSONArray statements = new JSONArray();
+        JSONArray rows = new JSONArray();
+        JSONArray maxMillis = new JSONArray();
+        JSONArray meanMillis = new JSONArray();
+        JSONArray histograms = new JSONArray();
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            Bucket b = entry.getValue();
+            start.put(entry.getKey().longValue());
+            statements.put(b.statements);
+            rows.put(b.rows);
+            maxMillis.put(b.maxMillis);
+            meanMillis.put(b.timed == 0 ? 0 : Math.round(b.millisSum * 10.0 / b.timed) / 10.0);
+            JSONArray histogram = new JSONArray();
+            int last = b.histogram.length;
+            while (last > 0 && b.histogram[last - 1] == 0) {
+                last--;
+            }
+            for (int i = 0; i < last; i++) {
+                histogram.put(b.histogram[i]);
+            }
+            histograms.put(histogram);
+        }
+        json.put("start", start);
+        json.put("statements", statements);
+        json.put("rows", rows);
+        json.put("maxMillis", maxMillis);
+        json.put("meanMillis", meanMillis);
+        json.put("latencyHistogram", histograms);
+        return json;
+    }
+
+    /**
+     * Doubles the bucket width until the buckets there are take at most half of
+     * {@link #MAX_BUCKETS}.
+     */
+    private void widen() {
+        while (buckets.size() > MAX_BUCKETS / 2) {
+            bucketMillis *= 2;
+            TreeMap<Long, Bucket> merged = new TreeMap<Long, Bucket>();
+            for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+                long at = entry.getKey().longValue();
+                Long start = Long.valueOf(at - at % bucketMillis);
+                Bucket into = merged.get(start);
+                if (into == null) {
+                    merged.put(start, entry.getValue());
+                } else {
+                    into.merge(entry.getValue());
+                }
+            }
+            buckets.clear();
+            buckets.putAll(merged);
+        }
+        last = null;
+    }
+
+    private static final class Bucket implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long statements;
+        long rows;
+        long timed;
+        long millisSum;
+        long maxMillis;
+        final long[] histogram = new long[LATENCY_BUCKETS + 1];
+
+        void add(long millis, long read) {
+            statements++;
+            rows += read;
+            if (millis >= 0) {
+                timed++;
+                millisSum += millis;
+                maxMillis = Math.max(maxMillis, millis);
+                histogram[millis == 0 ? 0 : Math.min(LATENCY_BUCKETS, 64 - Long.numberOfLeadingZeros(millis))]++;
+            }
+        }
+
+        void merge(Bucket other) {
+            statements += other.statements;
+            rows += other.rows;
+            timed += other.timed;
+            millisSum += other.millisSum;
+            maxMillis = Math.max(maxMillis, other.maxMillis);
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+        }
+    }
+}
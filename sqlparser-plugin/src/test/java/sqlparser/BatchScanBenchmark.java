@@ -0,0 +1,74 @@
+package sqlparser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Scans a directory of generated logs of very different sizes with {@link BatchScan}, first
+ * with one worker and then with the given number, and checks that every output file is
+ * the same as when the log is scanned on its own.
+ *
+ * <p>Not a unit test; run with
+ * <code>java -cp target/classes:target/test-classes:json.jar sqlparser.BatchScanBenchmark [logs] [statements] [workers]</code>
+ */
+public class BatchScanBenchmark {
+    private static final String[] OUTPUTS = { LogScan.REPORT_FILE, LogScan.RESULT_SETS_FILE, LogScan.SUMMARY_FILE,
+            LogScan.INDEXES_FILE, LogScan.REPLAY_FILE, LogScan.CONNECTIONS_FILE, LogScan.TIMELINE_FILE };
+
+    public static void main(String[] args) throws Exception {
+        int logs = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int statements = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        File logDir = TestLogs.tempDir("batchlogs");
+        long bytes = 0;
+        for (int i = 0; i < logs; i++) {
+            // a few large logs and many small ones
+            File dir = new File(logDir, "build" + i);
+            dir.mkdir();
+            File log = new File(dir, "container.log");
+            TestLogs.generate(log, Math.max(1, statements / (i + 1) / 3), i);
+            bytes += log.length();
+        }
+        System.out.println(logs + " logs, " + (bytes >> 20) + " MB");
+        ScanSettings settings = new ScanSettings(1, 0, 0, 1, 0);
+        List<File> found = BatchScan.findLogs(logDir, Pattern.compile(".*\\.log.*"), null);
+
+        File single = TestLogs.tempDir("batchone");
+        long start = System.nanoTime();
+        List<BatchScan.Result> results = new BatchScan(settings, TestLogs.UTF8, 1).run(logDir, found, single);
+        long oneWorker = System.nanoTime() - start;
+
+        File parallel = TestLogs.tempDir("batchall");
+        start = System.nanoTime();
+        results = new BatchScan(settings, TestLogs.UTF8, workers).run(logDir, found, parallel);
+        long allWorkers = System.nanoTime() - start;
+        BatchScan.writeSummary(results, parallel);
+
+        boolean same = true;
+        for (BatchScan.Result result : results) {
+            if (result.getError() != null) {
+                System.out.println(result);
+                same = false;
+                continue;
+            }
+            File alone = TestLogs.tempDir("batchref");
+            LogScan scan = settings.newScan(alone, null, TestLogs.UTF8);
+            scan.run(new File(logDir, result.getLog()));
+            for (String name : OUTPUTS) {
+                same &= Arrays.equals(TestLogs.read(new File(alone, name)),
+                        TestLogs.read(new File(result.getOutputDir(), name)));
+                same &= Arrays.equals(TestLogs.read(new File(alone, name)),
+                        TestLogs.read(new File(new File(single, result.getLog()), name)));
+            }
+        }
+
+        System.out.printf("1 worker   %6d ms%n", oneWorker / 1000000);
+        System.out.printf("%d workers %6d ms  %.2fx%n", workers, allWorkers / 1000000, (double) oneWorker / allWorkers);
+        System.out.println("outputs " + (same ? "identical" : "DIFFERENT") + " to scanning each log alone, see "
+                + new File(parallel, BatchScan.SUMMARY_FILE));
+    }
+
+}
@@ -0,0 +1,47 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompletedBuildCacheTest {
+    private static final class CountingLoader implements CompletedBuildCache.Loader<String, String> {
+        private int loads;
+
+        public String load(String project) {
+            loads++;
+            return project + " #" + loads;
+        }
+    }
+
+    @Test
+    public void loadsOncePerCompletedBuild() {
+        CountingLoader loader = new CountingLoader();
+        CompletedBuildCache<String, String> cache = new CompletedBuildCache<String, String>(loader);
+
+        // page renders
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a #1", cache.get("a"));
+        }
+        assertEquals(1, loader.loads);
+
+        cache.completed("a");
+        assertEquals(1, loader.loads);
+        assertEquals("a #2", cache.get("a"));
+        assertEquals("a #2", cache.get("a"));
+        assertEquals(2, loader.loads);
+    }
+
+    @Test
+    public void completingOneProjectKeepsTheOthers() {
+        CountingLoader loader = new CountingLoader();
+        CompletedBuildCache<String, String> cache = new CompletedBuildCache<String, String>(loader);
+        assertEquals("a #1", cache.get("a"));
+        assertEquals("b #2", cache.get("b"));
+
+        cache.completed("b");
+        assertEquals("a #1", cache.get("a"));
+        assertEquals("b #3", cache.get("b"));
+        assertEquals(3, loader.loads);
+    }
+}
@@ -0,0 +1,134 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ConnectionWorkloadTest {
+    private static final String A = "jdbc:h2:mem:a";
+    private static final String B = "jdbc:h2:mem:b";
+
+    private static String connect(String url) {
+        return "connect to URL " + url + " for user sa";
+    }
+
+    /**
+     * Opens the given number of connections to the URL, each running the given statements.
+     */
+    private static void run(ConnectionWorkload workload, String url, int opens, int statements) {
+        for (int i = 0; i < opens; i++) {
+            workload.opened(connect(url), -1);
+            for (int j = 0; j < statements; j++) {
+                workload.statement(1);
+            }
+        }
+    }
+
+    private static JSONObject url(ConnectionWorkload workload, String name) throws Exception {
+        JSONArray urls = workload.toJSON().getJSONArray("urls");
+        for (int i = 0; i < urls.length(); i++) {
+            if (name.equals(urls.getJSONObject(i).getString("url"))) {
+                return urls.getJSONObject(i);
+            }
+        }
+        throw new AssertionError("No " + name + " in " + urls);
+    }
+
+    @Test
+    public void churnNeedsEnoughOpensOfFewStatements() throws Exception {
+        ConnectionWorkload workload = new ConnectionWorkload();
+        // one open short of the threshold
+        run(workload, A, ConnectionWorkload.CHURN_MIN_OPENS - 1, 1);
+        assertEquals(Collections.emptyList(), workload.getChurning());
+        run(workload, A, 1, 1);
+        assertEquals(Arrays.asList(A), workload.getChurning());
+        assertTrue(url(workload, A).getBoolean("churning"));
+
+        // exactly CHURN_MAX_STATEMENTS per connection is not churning
+        ConnectionWorkload pooled = new ConnectionWorkload();
+        run(pooled, B, ConnectionWorkload.CHURN_MIN_OPENS, (int) ConnectionWorkload.CHURN_MAX_STATEMENTS);
+        assertEquals(Collections.emptyList(), pooled.getChurning());
+        pooled.opened(connect(B), -1);
+        assertEquals(Arrays.asList(B), pooled.getChurning());
+    }
+
+    @Test
+    public void statementsMoveConnectionsUpTheHistogram() throws Exception {
+        ConnectionWorkload workload = new ConnectionWorkload();
+        run(workload, A, 1, 0);
+        run(workload, A, 1, 1);
+        run(workload, A, 1, 3);
+        run(workload, A, 1, 4);
+
+        JSONArray histogram = url(workload, A).getJSONArray("statementsPerConnectionHistogram");
+        assertEquals(4, histogram.length());
+        assertBucket(histogram.getJSONObject(0), "0", 1);
+        assertBucket(histogram.getJSONObject(1), "1", 1);
+        assertBucket(histogram.getJSONObject(2), "2-3", 1);
+        assertBucket(histogram.getJSONObject(3), "4-7", 1);
+
+        // the open connection keeps moving
+        workload.statement(1);
+        workload.statement(1);
+        workload.statement(1);
+        workload.statement(1);
+        histogram = url(workload, A).getJSONArray("statementsPerConnectionHistogram");
+        assertEquals(4, histogram.length());
+        assertBucket(histogram.getJSONObject(3), "8-15", 1);
+        assertEquals(4, url(workload, A).getLong("opens"));
+        assertEquals(12, url(workload, A).getLong("statements"));
+    }
+
+    private static void assertBucket(JSONObject bucket, String statements, long count) throws Exception {
+        assertEquals(statements, bucket.getString("statements"));
+        assertEquals(count, bucket.getLong("count"));
+    }
+
+    @Test
+    public void busiestIncludesTheOpenConnection() throws Exception {
+        ConnectionWorkload workload = new ConnectionWorkload();
+        // connections 1..12 run 1..12 statements, the last one is still open
+        for (int i = 1; i <= 12; i++) {
+            run(workload, A, 1, i);
+        }
+        JSONArray busiest = url(workload, A).getJSONArray("busiestConnections");
+        assertEquals(10, busiest.length());
+        for (int i = 0; i < busiest.length(); i++) {
+            assertEquals(12 - i, busiest.getJSONObject(i).getLong("connection"));
+            assertEquals(12 - i, busiest.getJSONObject(i).getLong("statements"));
+        }
+
+        // ties go to the connection opened first
+        run(workload, B, 1, 5);
+        run(workload, A, 1, 12);
+        busiest = url(workload, A).getJSONArray("busiestConnections");
+        assertEquals(10, busiest.length());
+        assertEquals(12, busiest.getJSONObject(0).getLong("connection"));
+        assertEquals(14, busiest.getJSONObject(1).getLong("connection"));
+        assertEquals(4, busiest.getJSONObject(9).getLong("connection"));
+    }
+
+    @Test
+    public void urlsPastTheLimitAreCountedTogether() throws Exception {
+        ConnectionWorkload workload = new ConnectionWorkload();
+        for (int i = 0; i < ConnectionWorkload.MAX_URLS + 5; i++) {
+            run(workload, "jdbc:h2:mem:db" + i, 1, 2);
+        }
+        // a URL seen before the limit is still counted on its own
+        run(workload, "jdbc:h2:mem:db0", 1, 1);
+
+        JSONArray urls = workload.toJSON().getJSONArray("urls");
+        assertEquals(ConnectionWorkload.MAX_URLS + 1, urls.length());
+        JSONObject other = url(workload, "(other)");
+        assertEquals(5, other.getLong("opens"));
+        assertEquals(10, other.getLong("statements"));
+        assertEquals(2, url(workload, "jdbc:h2:mem:db0").getLong("opens"));
+        assertEquals(ConnectionWorkload.MAX_URLS + 6, workload.getConnections());
+    }
+}
@@ -0,0 +1,110 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IndexAdvisorTest {
+    private static final Integer EQUALITY = Integer.valueOf(IndexAdvisor.EQUALITY);
+    private static final Integer RANGE = Integer.valueOf(IndexAdvisor.RANGE);
+    private static final Integer LIKE = Integer.valueOf(IndexAdvisor.LIKE);
+
+    private static Map<String, Integer> columns(String query, String table) {
+        Map<String, Map<String, Integer>> predicates = IndexAdvisor.predicates(query);
+        Map<String, Integer> columns = predicates.get(table);
+        assertTrue(table + " in " + predicates, columns != null);
+        return columns;
+    }
+
+    @Test
+    public void equalityPredicates() {
+        Map<String, Integer> columns = columns(
+                "select t.id from app.t t where t.a = 1 and t.b in (1, 2) and t.c is null; 3 ms.", "app.t");
+        assertEquals(EQUALITY, columns.get("a"));
+        assertEquals(EQUALITY, columns.get("b"));
+        assertEquals(EQUALITY, columns.get("c"));
+        assertEquals(3, columns.size());
+    }
+
+    @Test
+    public void rangeAndLikePredicates() {
+        Map<String, Integer> columns = columns("select t.id from app.t t where t.a < 1 and t.b >= 2 and t.c between 1"
+                + " and 5 and t.d like 'x%'", "app.t");
+        assertEquals(RANGE, columns.get("a"));
+        assertEquals(RANGE, columns.get("b"));
+        assertEquals(RANGE, columns.get("c"));
+        assertEquals(LIKE, columns.get("d"));
+        assertEquals(4, columns.size());
+    }
+
+    @Test
+    public void negationsAreIgnored() {
+        assertTrue(IndexAdvisor.predicates("select t.id from app.t t where t.a <> 1 and t.b != 2 and t.c not like 'x'"
+                + " and t.d not in (1) and t.e is not null").isEmpty());
+    }
+
+    @Test
+    public void mostSelectiveKindWins() {
+        Map<String, Integer> columns = columns("select t.id from app.t t where t.a > 1 and t.a = 2 and t.b like 'x'"
+                + " and t.b < 'y'", "app.t");
+        assertEquals(EQUALITY, columns.get("a"));
+        assertEquals(RANGE, columns.get("b"));
+    }
+
+    @Test
+    public void aliasesOfJoinedTables() {
+        Map<String, Map<String, Integer>> predicates = IndexAdvisor.predicates("select o.id from app.orders o inner"
+                + " join app.customer c on o.customer=c.id where c.name = 'x' and o.total > 5 and status = 1");
+        assertEquals(2, predicates.size());
+        assertEquals(EQUALITY, predicates.get("app.customer").get("name"));
+        assertEquals(RANGE, predicates.get("app.orders").get("total"));
+        // unqualified columns belong to the first table
+        assertEquals(EQUALITY, predicates.get("app.orders").get("status"));
+    }
+
+    @Test
+    public void updateStatements() {
+        Map<String, Integer> columns = columns("update app.t set a=1, b=2 where id = 5", "app.t");
+        assertEquals(EQUALITY, columns.get("id"));
+        assertEquals(1, columns.size());
+    }
+
+    @Test
+    public void statementsWithoutWhere() {
+        assertTrue(IndexAdvisor.predicates("select t.id from app.t t").isEmpty());
+        assertTrue(IndexAdvisor.predicates("insert into app.t (a) values (1)").isEmpty());
+    }
+
+    @Test
+    public void loggedTime() {
+        assertEquals(12, IndexAdvisor.millis("select 1 from app.t where a=1; 12 ms."));
+        assertEquals(1, IndexAdvisor.millis("select 1 from app.t where a=1; 0 ms."));
+        assertEquals(1, IndexAdvisor.millis("select 1 from app.t where a=1"));
+    }
+
+    @Test
+    public void candidatesRankedByTotalTime() {
+        IndexAdvisor advisor = new IndexAdvisor();
+        advisor.record("select t.id from app.t t where t.b = 1 and t.a = 2 and t.d > 3 and t.c like 'x'; 5 ms.");
+        advisor.record("select t.id from app.t t where t.b = 7 and t.a = 8 and t.d > 9 and t.c like 'y'; 4 ms.");
+        advisor.record("select u.id from app.u u where u.x = 1; 7 ms.");
+        advisor.record("select u.id from app.u u where u.x = 2; 1 ms.");
+        advisor.record("select v.id from app.v v where v.y = 1; 8 ms.");
+
+        List<IndexAdvisor.Candidate> candidates = advisor.getCandidates();
+        assertEquals(3, candidates.size());
+        assertEquals("app.t", candidates.get(0).getTable());
+        assertEquals(2, candidates.get(0).getStatements());
+        assertEquals(9, candidates.get(0).getMillis());
+        // equality columns first, then the first of the range and like columns
+        assertEquals(Arrays.asList("a", "b", "c"), candidates.get(0).getIndexColumns());
+        // same total time, more statements first
+        assertEquals("app.u", candidates.get(1).getTable());
+        assertEquals("app.v", candidates.get(2).getTable());
+    }
+}
@@ -0,0 +1,103 @@
+package sqlparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogScanTest {
+    private static final String[] OUTPUTS = { LogScan.REPORT_FILE, LogScan.RESULT_SETS_FILE, LogScan.SUMMARY_FILE,
+            LogScan.FAILURES_FILE, LogScan.INDEXES_FILE, LogScan.REPLAY_FILE, LogScan.SAMPLE_FILE,
+            LogScan.CONNECTIONS_FILE, LogScan.TIMELINE_FILE };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogScan scan(ScanSettings settings, File log, File checkpointDir) throws Exception {
+        LogScan scan = settings.newScan(folder.newFolder("out" + System.nanoTime()), checkpointDir, TestLogs.UTF8);
+        scan.run(log);
+        return scan;
+    }
+
+    private void assertSameOutputs(LogScan expected, LogScan actual) throws IOException {
+        for (String name : OUTPUTS) {
+            File file = new File(expected.getOutputDir(), name);
+            assertEquals(name, file.exists(), new File(actual.getOutputDir(), name).exists());
+            if (file.exists()) {
+                assertArrayEquals(name, TestLogs.read(file), TestLogs.read(new File(actual.getOutputDir(), name)));
+            }
+        }
+        assertEquals(expected.getRecords(), actual.getRecords());
+    }
+
+    private void resumedScanEqualsFullScan(ScanSettings settings) throws Exception {
+        String full = SQLLogPipelineTest.log(300);
+        File log = folder.newFile("container" + System.nanoTime() + ".log");
+        File checkpoints = new File(folder.getRoot(), "checkpoints" + System.nanoTime());
+
+        int[] ends = { 0, full.indexOf('\n') + 1, full.length() / 3, full.length() / 2, full.length() };
+        String written = "";
+        for (int end : ends) {
+            // cut at a line boundary, as a log is flushed
+            String upTo = full.substring(0, full.lastIndexOf('\n', Math.max(0, end - 1)) + 1);
+            TestLogs.write(log, upTo.substring(written.length()), true);
+            LogScan incremental = scan(settings, log, checkpoints);
+            assertEquals(written.getBytes(TestLogs.UTF8).length, incremental.getResumedOffset());
+            assertTrue(incremental.isCheckpointed());
+            assertSameOutputs(scan(settings, log, null), incremental);
+            written = upTo;
+        }
+
+        // nothing appended
+        LogScan again = scan(settings, log, checkpoints);
+        assertEquals(log.length(), again.getResumedOffset());
+        assertSameOutputs(scan(settings, log, null), again);
+    }
+
+    @Test
+    public void resumedScanEqualsFullScan() throws Exception {
+        resumedScanEqualsFullScan(new ScanSettings(2, 16, 2, 1, 0));
+        resumedScanEqualsFullScan(new ScanSettings(0, 0, 0, 0.5, 0));
+    }
+
+    @Test
+    public void rewrittenLogIsParsedFromTheStart() throws Exception {
+        ScanSettings settings = new ScanSettings(1, 0, 0, 1, 0);
+        File log = folder.newFile("container.log");
+        File checkpoints = new File(folder.getRoot(), "checkpoints");
+        TestLogs.write(log, SQLLogPipelineTest.log(50), false);
+        assertTrue(scan(settings, log, checkpoints).isCheckpointed());
+
+        TestLogs.write(log, SQLLogPipelineTest.log(60).replace("table", "other"), false);
+        LogScan rewritten = scan(settings, log, checkpoints);
+        assertEquals(0, rewritten.getResumedOffset());
+        assertSameOutputs(scan(settings, log, null), rewritten);
+    }
+
+    @Test
+    public void unfinishedLastLineIsNotCheckpointed() throws Exception {
+        ScanSettings settings = new ScanSettings(1, 0, 0, 1, 0);
+        File log = folder.newFile("container.log");
+        File checkpoints = new File(folder.getRoot(), "checkpoints");
+        TestLogs.write(log, SQLLogPipelineTest.log(20), false);
+        assertTrue(scan(settings, log, checkpoints).isCheckpointed());
+
+        TestLogs.write(log, "INFO: unfinished", true);
+        LogScan resumed = scan(settings, log, checkpoints);
+        assertTrue(resumed.getResumedOffset() > 0);
+        assertTrue(!resumed.isCheckpointed());
+        assertSameOutputs(scan(settings, log, null), resumed);
+
+        // the checkpoint was taken by the scan above, so the next one starts over
+        TestLogs.write(log, "\n", true);
+        LogScan next = scan(settings, log, checkpoints);
+        assertEquals(0, next.getResumedOffset());
+        assertSameOutputs(scan(settings, log, null), next);
+    }
+}
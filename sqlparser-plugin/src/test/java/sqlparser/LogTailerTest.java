@@ -0,0 +1,167 @@
+package sqlparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogTailerTest {
+    private static final ScanSettings SETTINGS = new ScanSettings(2, 16, 2, 1, 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogTailer start(File log) throws IOException {
+        return start(log, 5);
+    }
+
+    private LogTailer start(File log, long pollMillis) throws IOException {
+        LogTailer tailer = new LogTailer(log, SETTINGS.newScan(folder.newFolder("tailed"), null, TestLogs.UTF8),
+                pollMillis);
+        tailer.start();
+        return tailer;
+    }
+
+    private static void awaitRead(LogTailer tailer, long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (tailer.getBytesRead() < bytes) {
+            assertTrue("read " + tailer.getBytesRead() + " of " + bytes, System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Checks that the tailed scan wrote what a scan of the text, as one file, writes.
+     */
+    private void assertScanned(String text, LogScan tailed) throws Exception {
+        File whole = folder.newFile("whole.log");
+        TestLogs.write(whole, text, false);
+        LogScan scan = SETTINGS.newScan(folder.newFolder("whole"), null, TestLogs.UTF8);
+        scan.run(whole);
+        for (String name : new String[] { LogScan.REPORT_FILE, LogScan.RESULT_SETS_FILE, LogScan.SUMMARY_FILE,
+                LogScan.REPLAY_FILE, LogScan.CONNECTIONS_FILE }) {
+            assertArrayEquals(name, TestLogs.read(new File(scan.getOutputDir(), name)),
+                    TestLogs.read(new File(tailed.getOutputDir(), name)));
+        }
+        assertEquals(scan.getRecords(), tailed.getRecords());
+    }
+
+    @Test
+    public void followsAppends() throws Exception {
+        String first = SQLLogPipelineTest.log(30);
+        String second = SQLLogPipelineTest.log(45).substring(first.length());
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log);
+        awaitRead(tailer, log.length());
+        TestLogs.write(log, second, true);
+        awaitRead(tailer, log.length());
+        LogScan scan = tailer.finish();
+        assertEquals(0, tailer.getRotations());
+        assertScanned(first + second, scan);
+    }
+
+    @Test
+    public void rotatedToALongerFileBeforeThePoll() throws Exception {
+        String first = SQLLogPipelineTest.log(20);
+        String second = SQLLogPipelineTest.log(60).replace("table", "other");
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log);
+        awaitRead(tailer, log.length());
+
+        // renamed away and the new log written past the old offset before the tailer looks again
+        assertTrue(log.renameTo(new File(log.getPath() + ".1")));
+        File rotated = new File(log.getPath() + ".tmp");
+        TestLogs.write(rotated, second, false);
+        assertTrue(rotated.renameTo(log));
+
+        LogScan scan = tailer.finish();
+        assertEquals(1, tailer.getRotations());
+        assertScanned(first + second, scan);
+    }
+
+    @Test
+    public void rotatedToAFileOfTheSameLength() throws Exception {
+        String first = SQLLogPipelineTest.log(20);
+        String second = first.replace("table", "other");
+        assertEquals(first.length(), second.length());
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log);
+        awaitRead(tailer, log.length());
+
+        assertTrue(log.renameTo(new File(log.getPath() + ".1")));
+        File rotated = new File(log.getPath() + ".tmp");
+        TestLogs.write(rotated, second, false);
+        assertTrue(rotated.renameTo(log));
+
+        LogScan scan = tailer.finish();
+        assertEquals(1, tailer.getRotations());
+        assertScanned(first + second, scan);
+    }
+
+    @Test
+    public void truncatedInPlace() throws Exception {
+        String first = SQLLogPipelineTest.log(40);
+        String second = SQLLogPipelineTest.log(10).replace("table", "other");
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log);
+        awaitRead(tailer, log.length());
+
+        // copytruncate: the log is copied away and emptied, and the application keeps writing to it
+        TestLogs.write(log, second, false);
+
+        LogScan scan = tailer.finish();
+        assertEquals(1, tailer.getRotations());
+        assertScanned(first + second, scan);
+    }
+
+    @Test
+    public void movedAwayAndWrittenToBeforeANewLogAppears() throws Exception {
+        String first = SQLLogPipelineTest.log(20);
+        String second = SQLLogPipelineTest.log(50).substring(first.length());
+        String third = SQLLogPipelineTest.log(30).replace("table", "other");
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log);
+        awaitRead(tailer, log.length());
+
+        // the application still writes to the moved log for a while
+        File moved = new File(log.getPath() + ".1");
+        assertTrue(log.renameTo(moved));
+        Thread.sleep(50);
+        TestLogs.write(moved, second, true);
+        awaitRead(tailer, moved.length());
+        TestLogs.write(log, third, false);
+
+        LogScan scan = tailer.finish();
+        assertEquals(1, tailer.getRotations());
+        assertScanned(first + second + third, scan);
+    }
+
+    @Test
+    public void truncatedInPlaceAndWrittenPastTheOffsetBeforeThePoll() throws Exception {
+        String first = SQLLogPipelineTest.log(20);
+        String second = SQLLogPipelineTest.log(60).replace("table", "other");
+        File log = folder.newFile("container.log");
+        TestLogs.write(log, first, false);
+        LogTailer tailer = start(log, 500);
+        awaitRead(tailer, log.length());
+        // waiting at the end of the log
+        Thread.sleep(100);
+
+        TestLogs.write(log, second, false);
+
+        LogScan scan = tailer.finish();
+        assertEquals(1, tailer.getRotations());
+        assertScanned(first + second, scan);
+    }
+}
@@ -0,0 +1,104 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class LogTimestampTest {
+    private static final String FORMAT = "MMM dd, yyyy h:mm:ss a";
+    private static final String SUFFIX = " org.jdbcdslog.StatementLogger info";
+
+    private static SimpleDateFormat format(TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat(FORMAT, Locale.ENGLISH);
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    private static long expected(SimpleDateFormat format, String line) {
+        return format.parse(line, new ParsePosition(0)).getTime();
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() {
+        Random random = new Random(38);
+        for (String id : new String[] { "UTC", "Europe/Berlin", "America/New_York", "Australia/Lord_Howe",
+                "Pacific/Chatham", "Asia/Kolkata" }) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            SimpleDateFormat format = format(zone);
+            LogTimestamp timestamp = new LogTimestamp(zone);
+            long time = 1000000000000L;
+            for (int i = 0; i < 20000; i++) {
+                time += random.nextInt(3600000) * 1000L;
+                String line = format.format(new Date(time)) + SUFFIX;
+                if (random.nextBoolean()) {
+                    // SimpleFormatter writes the day without padding in some locales
+                    line = line.replaceFirst(" 0(\\d),", " $1,");
+                }
+                assertEquals(id + " " + line, expected(format, line), timestamp.parse(line));
+            }
+        }
+    }
+
+    /**
+     * Every minute of the days the clocks change, including the time skipped in spring and
+     * the time repeated in autumn, read in order as a log would have them.
+     */
+    @Test
+    public void daylightSavingTransitions() {
+        String[][] days = { { "America/New_York", "2014-03-09", "2014-11-02" },
+                { "Europe/Berlin", "2014-03-30", "2014-10-26" },
+                // half an hour forward and back
+                { "Australia/Lord_Howe", "2014-04-06", "2014-10-05" },
+                // at a quarter to the hour
+                { "Pacific/Chatham", "2014-04-06", "2014-09-28" } };
+        for (String[] day : days) {
+            TimeZone zone = TimeZone.getTimeZone(day[0]);
+            SimpleDateFormat format = format(zone);
+            LogTimestamp timestamp = new LogTimestamp(zone);
+            for (int d = 1; d < day.length; d++) {
+                String[] date = day[d].split("-");
+                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ENGLISH);
+                calendar.clear();
+                calendar.set(Integer.parseInt(date[0]), Integer.parseInt(date[1]) - 1, Integer.parseInt(date[2]));
+                SimpleDateFormat wallClock = new SimpleDateFormat(FORMAT, Locale.ENGLISH);
+                wallClock.setTimeZone(TimeZone.getTimeZone("UTC"));
+                for (int minute = 0; minute < 24 * 60; minute++) {
+                    String line = wallClock.format(calendar.getTime()) + SUFFIX;
+                    assertEquals(day[0] + " " + line, expected(format, line), timestamp.parse(line));
+                    calendar.add(Calendar.MINUTE, 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void linesWithoutTimestamp() {
+        LogTimestamp timestamp = new LogTimestamp(TimeZone.getTimeZone("UTC"));
+        assertEquals(-1, timestamp.parse("INFO: select x from y.z; 3 ms."));
+        assertEquals(-1, timestamp.parse(""));
+        assertEquals(-1, timestamp.parse("Jun 06, 2014"));
+        assertEquals(-1, timestamp.parse("Foo 06, 2014 1:17:04 PM org.jdbcdslog"));
+        assertEquals(-1, timestamp.parse("Jun 06, 2014 13:17:04 PM org.jdbcdslog"));
+        assertEquals(-1, timestamp.parse("Jun 32, 2014 1:17:04 PM org.jdbcdslog"));
+        assertEquals(-1, timestamp.parse("Jun 06, 14 1:17:04 PM org.jdbcdslog"));
+        assertEquals(-1, timestamp.parse("Jun 06, 2014 1:17:04 XM org.jdbcdslog"));
+        assertEquals(-1, timestamp.parse("Jun 06, 2014 1:7:04 PM org.jdbcdslog"));
+    }
+
+    @Test
+    public void fullMonthNamesAndNoon() {
+        LogTimestamp timestamp = new LogTimestamp(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat format = format(TimeZone.getTimeZone("UTC"));
+        assertEquals(expected(format, "Jun 6, 2014 12:17:04 PM"), timestamp.parse("June 6, 2014 12:17:04 PM xxx"));
+        assertEquals(expected(format, "Jun 06, 2014 12:00:00 AM"), timestamp.parse("Jun 06, 2014 12:00:00 AM xxx"));
+        assertEquals(1402057024000L, timestamp.parse("Jun 06, 2014 12:17:04 PM org.jdbcdslog"));
+    }
+}
@@ -0,0 +1,113 @@
+package sqlparser;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Compares parsing the statements of a build without the {@link ParseCache}, with a cache
+ * that is still empty, as in the first build, and with the cache the first build saved,
+ * as in every later one. Checks that the schema summary and index candidates come out the
+ * same either way.
+ *
+ * <p>The statements are generated: a few dozen shapes with varying literals and timings.
+ *
+ * <p>Not a unit test; run with
+ * <code>java -cp target/classes:target/test-classes:json.jar sqlparser.ParseCacheBenchmark [statements] [runs]</code>
+ */
+public class ParseCacheBenchmark {
+    private static final int SHAPES = 40;
+
+    public static void main(String[] args) throws Exception {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        String[] build = generate(statements);
+        File file = File.createTempFile("parsecache", ".bin");
+        file.deleteOnExit();
+        System.out.println(statements + " statements");
+
+        long uncached = Long.MAX_VALUE;
+        long cold = Long.MAX_VALUE;
+        long warm = Long.MAX_VALUE;
+        String expected = null;
+        boolean same = true;
+        ParseCache cache = null;
+        for (int run = 0; run < runs; run++) {
+            QueryParser parser = new QueryParser();
+            long start = System.nanoTime();
+            parse(parser, build);
+            uncached = Math.min(uncached, System.nanoTime() - start);
+            expected = summary(parser);
+
+            file.delete();
+            parser = new QueryParser();
+            start = System.nanoTime();
+            cache = ParseCache.load(file, ParseCache.DEFAULT_MAX_UNUSED_BUILDS, ParseCache.DEFAULT_MAX_ENTRIES);
+            parser.setCache(cache);
+            parse(parser, build);
+            cache.save();
+            cold = Math.min(cold, System.nanoTime() - start);
+            same &= expected.equals(summary(parser));
+
+            parser = new QueryParser();
+            start = System.nanoTime();
+            cache = ParseCache.load(file, ParseCache.DEFAULT_MAX_UNUSED_BUILDS, ParseCache.DEFAULT_MAX_ENTRIES);
+            parser.setCache(cache);
+            parse(parser, build);
+            cache.save();
+            warm = Math.min(warm, System.nanoTime() - start);
+            same &= expected.equals(summary(parser));
+        }
+
+        print("no cache", uncached, statements);
+        print("cold cache", cold, statements);
+        print("warm cache", warm, statements);
+        System.out.println(cache.getShapes() + " shapes, " + file.length() + " bytes, " + cache.getHits()
+                + " statements from the cache, results " + (same ? "identical" : "DIFFERENT"));
+    }
+
+    private static void parse(QueryParser parser, String[] statements) {
+        for (String statement : statements) {
+            parser.parse(statement);
+        }
+    }
+
+    private static String summary(QueryParser parser) {
+        return parser.getResults() + "\n" + parser.getCandidateIndexes() + "\n" + parser.getAllFailedQuerys() + "\n"
+                + parser.getMaxQueryTime() + " " + parser.getAverageQueryTime();
+    }
+
+    private static void print(String name, long nanos, int statements) {
+        System.out.printf("%-11s %6d ms  %6.2f us/statement%n", name, nanos / 1000000, nanos / 1000.0 / statements);
+    }
+
+    private static String[] generate(int statements) {
+        Random random = new Random(42);
+        String[] build = new String[statements];
+        for (int i = 0; i < statements; i++) {
+            int shape = random.nextInt(SHAPES);
+            long millis = Math.round(Math.exp(1 + random.nextGaussian()));
+            switch (shape % 4) {
+            case 0:
+                build[i] = "select t0_.code as code1_" + shape + "_, t0_.name as name2_" + shape + "_ from AppUser.table"
+                        + shape + " t0_ where t0_.code='C" + random.nextInt(100000) + "' and t0_.version="
+                        + random.nextInt(50) + "; " + millis + " ms.";
+                break;
+            case 1:
+                build[i] = "insert into AppUser.table" + shape + " (code, name, version) values ('C"
+                        + random.nextInt(100000) + "', 'Name', " + random.nextInt(50) + "); " + millis + " ms.";
+                break;
+            case 2:
+                build[i] = "update AppUser.table" + shape + " set version=" + random.nextInt(50) + ", code='C"
+                        + random.nextInt(100000) + "' where id=" + random.nextInt(1000) + "; " + millis + " ms.";
+                break;
+            default:
+                build[i] = "select t0_.id as id1_" + shape + "_, t1_.name as name2_" + shape + "_ from AppUser.table" + shape
+                        + " t0_ inner join AppUser.owner t1_ on t0_.owner=t1_.id where t1_.id in (" + random.nextInt(1000)
+                        + ", " + random.nextInt(1000) + ") and t0_.created > " + random.nextInt(100000) + "; " + millis
+                        + " ms.";
+            }
+        }
+        return build;
+    }
+}
@@ -0,0 +1,214 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParseCacheTest {
+    /** Statements as an application logs them, # standing for a number. */
+    private static final String[] TEMPLATES = {
+            "select t0_.code as code1_#_, t0_.name as name2_#_ from AppUser.customer t0_ where t0_.code='C#'"
+                    + " and t0_.version=#; # ms.",
+            "select t0_.code as code1_#_, t0_.id as id2_ from AppUser.customer t0_ where t0_.id in (#, #, #); # ms.",
+            "select #, t0_.a from AppUser.dual t0_; # ms.",
+            "select t0_.a, t0_.b from AppUser.t# t0_ where t0_.name like 'ab#in' ; # ms.",
+            "select t0_.a, t0_.c from AppUser.orders t0_ where t0_.total > #.# and t0_.x = 'q#z w#'; # ms.",
+            "insert into AppUser.audit (code, version) values ('C#', #); # ms.",
+            "update AppUser.customer set name='N#', version=# where id=#; # ms.",
+            "update AppUser.customer set name='N#' , v#=# where id=#; # ms.",
+            "select count(*), t0_.a from AppUser.orders t0_ where id=#",
+            "select (t0_.x), t0_.z from AppUser.item t0_ where t0_.id=# union select (t1_.y), t1_.w from AppUser.item2"
+                    + " t1_ where t1_.k='#'; # ms.",
+            "delete from AppUser.session where id=#",
+            "select t#_.c, t#_.d from AppUser.customer t#_ where t#_.c=#; # ms.",
+            "SELECT T0_.Code, T0_.Name FROM AppUser.Customer T0_ WHERE T0_.Code = 'Abc#' ; # ms.",
+            "select a, b from s.t where x = '# #' and y=#; # ms.",
+            "update between .= #<=values from getdate()" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String statement(Random random) {
+        if (random.nextInt(4) == 0) {
+            return QueryParserTest.randomStatement(random);
+        }
+        String template = TEMPLATES[random.nextInt(TEMPLATES.length)];
+        StringBuilder statement = new StringBuilder();
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c != '#') {
+                statement.append(c);
+            } else if (random.nextBoolean()) {
+                statement.append(random.nextInt(10));
+            } else {
+                statement.append(random.nextInt(1000000));
+            }
+        }
+        return statement.toString();
+    }
+
+    private static String state(QueryParser parser) {
+        return parser.getResults() + "|" + parser.getCandidateIndexes() + "|" + parser.getAllFailedQuerys() + "|"
+                + parser.getLastFailedQuery() + "|" + parser.getMaxQueryTime() + "|" + parser.getAverageQueryTime()
+                + "|" + parser.getLongestQueryTimeString();
+    }
+
+    private static void parseBoth(QueryParser plain, QueryParser cached, String statement) {
+        ParseResult expected = plain.parse(statement);
+        ParseResult actual = cached.parse(statement);
+        assertEquals(statement, expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void cachedParsingMatchesUncachedParsing() throws Exception {
+        File file = new File(folder.getRoot(), "parse.cache");
+        Random random = new Random(39);
+        for (int build = 0; build < 4; build++) {
+            ParseCache cache = ParseCache.load(file, 2, 100000);
+            QueryParser plain = new QueryParser();
+            QueryParser cached = new QueryParser();
+            cached.setCache(cache);
+            for (int i = 0; i < 5000; i++) {
+                parseBoth(plain, cached, statement(random));
+            }
+            assertEquals("build " + build, state(plain), state(cached));
+            assertTrue(cache.getHits() > 0);
+            cache.save();
+        }
+    }
+
+    @Test
+    public void numbersOfAnotherLengthAreAnotherShape() throws Exception {
+        assertEquals("where a=000 and b='x00'; 0 ms.",
+                StatementFingerprint.digitsMasked("where a=534 and b='x12'; 7 ms."));
+        assertEquals("where a=645 and b='x23'; 8 ms.",
+                StatementFingerprint.digitsShifted("where a=534 and b='x12'; 7 ms."));
+
+        QueryParser plain = new QueryParser();
+        QueryParser cached = new QueryParser();
+        cached.setCache(ParseCache.load(new File(folder.getRoot(), "none"), 2, 100));
+        parseBoth(plain, cached, "update between .= 7<=values from getdate()");
+        parseBoth(plain, cached, "update between .= 534<=values from getdate()");
+        assertEquals(state(plain), state(cached));
+    }
+
+    @Test
+    public void fullCacheParsesNewShapesWithoutAddingThem() throws Exception {
+        File file = new File(folder.getRoot(), "parse.cache");
+        ParseCache cache = ParseCache.load(file, 2, 3);
+        QueryParser plain = new QueryParser();
+        QueryParser cached = new QueryParser();
+        cached.setCache(cache);
+        for (int round = 0; round < 3; round++) {
+            for (int table = 0; table < 10; table++) {
+                parseBoth(plain, cached, "select t0_.a, t0_.b from app.table" + (char) ('a' + table) + " t0_");
+            }
+        }
+        assertEquals(state(plain), state(cached));
+        assertTrue(cache.isFull());
+        assertEquals(3, cache.getAdded());
+        assertEquals(3, cache.getShapes());
+        assertEquals(6, cache.getHits());
+        assertEquals(30, cache.getLookups());
+
+        cache.save();
+        cache = ParseCache.load(file, 2, 3);
+        assertEquals(3, cache.getShapes());
+    }
+
+    @Test
+    public void shapesSurviveSavingAndUnusedOnesExpire() throws Exception {
+        File file = new File(folder.getRoot(), "parse.cache");
+        ParseCache cache = ParseCache.load(file, 1, 100);
+        QueryParser parser = new QueryParser();
+        parser.setCache(cache);
+        parser.parse("select t0_.a, t0_.b from app.t t0_ where t0_.a=1");
+        parser.parse("select t0_.a, t0_.b from app.u t0_ where t0_.a=1");
+        assertEquals(2, cache.getAdded());
+        cache.save();
+
+        cache = ParseCache.load(file, 1, 100);
+        parser = new QueryParser();
+        parser.setCache(cache);
+        parser.parse("select t0_.a, t0_.b from app.t t0_ where t0_.a=2");
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getAdded());
+        assertEquals("{\"app\":{\"t\":[\"a\",\"b\"]}}", parser.getResults().toString());
+        cache.save();
+
+        // a build without statements, after which app.u was last used two builds ago
+        ParseCache.load(file, 1, 100).save();
+        assertEquals(1, ParseCache.load(file, 1, 100).getShapes());
+    }
+
+    @Test
+    public void shapesOfTheSameHashAreToldApart() throws Exception {
+        File file = new File(folder.getRoot(), "parse.cache");
+        String first = "select t0_.a, t0_.b from app.t t0_ where t0_.a=1";
+        String second = "select t0_.c, t0_.d from app.u t0_ where t0_.c=1";
+        ParseCache cache = ParseCache.load(file, 2, 100);
+        QueryParser parser = new QueryParser();
+        parser.setCache(cache);
+        parser.parse(first);
+        cache.save();
+
+        // give the entry of the first shape the hash and length of the second
+        String shape = StatementFingerprint.digitsMasked(second);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(20);
+            raf.writeLong(ParseCache.hash(shape));
+            raf.seek(36);
+            raf.writeInt(shape.length());
+        } finally {
+            raf.close();
+        }
+
+        cache = ParseCache.load(file, 2, 100);
+        assertEquals(1, cache.getShapes());
+        QueryParser plain = new QueryParser();
+        QueryParser cached = new QueryParser();
+        cached.setCache(cache);
+        parseBoth(plain, cached, second);
+        assertEquals(state(plain), state(cached));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getAdded());
+    }
+
+    @Test
+    public void unreadableFileStartsEmpty() throws Exception {
+        File file = new File(folder.getRoot(), "parse.cache");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { 0x53, 0x51, 0x50, 0x43, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 9, 1 });
+        } finally {
+            out.close();
+        }
+        assertEquals(0, ParseCache.load(file, 2, 100).getShapes());
+    }
+
+    @Test
+    public void payingOff() throws Exception {
+        ParseCache cache = ParseCache.load(new File(folder.getRoot(), "none"), 2, 100);
+        QueryParser parser = new QueryParser();
+        parser.setCache(cache);
+        for (int i = 0; i < 5; i++) {
+            parser.parse("select t0_.a, t0_.b from app.t" + (char) ('a' + i) + " t0_");
+        }
+        assertFalse(cache.isPayingOff());
+        for (int i = 0; i < 5; i++) {
+            parser.parse("select t0_.a, t0_.b from app.t" + (char) ('a' + i) + " t0_");
+        }
+        assertTrue(cache.isPayingOff());
+    }
+}
@@ -0,0 +1,88 @@
+package sqlparser;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures {@link QueryParser} on a corpus where most statements cannot be parsed: stored
+ * procedure calls, statements without a schema, truncated and garbled ones, mixed with
+ * ordinary selects, inserts and updates. Prints the time per statement for the whole
+ * corpus and for the well-formed part alone, and what the failures were.
+ *
+ * <p>Not a unit test; run with
+ * <code>java -cp target/classes:target/test-classes:json.jar sqlparser.QueryParserBenchmark [statements] [failure%] [runs]</code>
+ */
+public class QueryParserBenchmark {
+    private static final String[] FAILING = {
+        "exec AppUser.usp_refresh_cache @id=%d",
+        "select count(*) from orders where id=%d",
+        "select t0_.code from AppUser.",
+        "insert into AppUser.audit",
+        "update AppUser.customer set",
+        "update AppUser.customer set name",
+        "select (t0_.code from AppUser.customer t0_ where t0_.id=%d",
+        "select name from customer where id=%d",
+        "delete from AppUser.session where id=%d",
+        "commit",
+        "set nocount on",
+        "select",
+    };
+    private static final String[] PASSING = {
+        "select t0_.code as code1_, t0_.name as name2_ from AppUser.customer t0_ where t0_.id=%d; 3 ms.",
+        "insert into AppUser.audit (code, version) values ('C%d', 1); 1 ms.",
+        "update AppUser.customer set name='N%d', version=2 where id=7; 2 ms.",
+        "select max(t0_.version) from AppUser.customer t0_ where t0_.code='C%d'; 4 ms.",
+    };
+
+    public static void main(String[] args) {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int failurePercent = args.length > 1 ? Integer.parseInt(args[1]) : 90;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        String[] corpus = generate(statements, failurePercent);
+        String[] wellFormed = generate(statements, 0);
+        System.out.println(statements + " statements, " + failurePercent + "% failing");
+
+        Map<ParseResult.Reason, Integer> reasons = null;
+        long best = Long.MAX_VALUE;
+        long bestWellFormed = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            Map<ParseResult.Reason, Integer> counted = new EnumMap<ParseResult.Reason, Integer>(
+                    ParseResult.Reason.class);
+            QueryParser parser = new QueryParser();
+            long start = System.nanoTime();
+            for (String statement : corpus) {
+                ParseResult result = parser.parse(statement);
+                Integer count = counted.get(result.getReason());
+                counted.put(result.getReason(), count == null ? 1 : count + 1);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            reasons = counted;
+
+            parser = new QueryParser();
+            start = System.nanoTime();
+            for (String statement : wellFormed) {
+                parser.processQuery(statement);
+            }
+            bestWellFormed = Math.min(bestWellFormed, System.nanoTime() - start);
+        }
+
+        System.out.printf("mixed corpus   %8d ms  %6.2f us/statement%n", best / 1000000, best / 1000.0 / statements);
+        System.out.printf("well-formed    %8d ms  %6.2f us/statement%n", bestWellFormed / 1000000,
+                bestWellFormed / 1000.0 / statements);
+        for (Map.Entry<ParseResult.Reason, Integer> entry : reasons.entrySet()) {
+            System.out.printf("  %-26s %8d%n", entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static String[] generate(int statements, int failurePercent) {
+        Random random = new Random(42);
+        String[] corpus = new String[statements];
+        for (int i = 0; i < statements; i++) {
+            String[] shapes = random.nextInt(100) < failurePercent ? FAILING : PASSING;
+            corpus[i] = String.format(shapes[random.nextInt(shapes.length)], random.nextInt(100000));
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,115 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QueryParserTest {
+    /** Pieces random statements are put together from, valid SQL or not. */
+    private static final String[] FRAGMENTS = { "select ", "insert into ", "update ", "from ", "where ", "set ",
+            "values ", "schema.tbl ", "a.b.c ", "t0_.x ", "(", ")", ",", " = ", "=", "<", ">", "<=", "; ", "12 ",
+            "ms.", "-5 ", "+7 ", "99999999999 ", "and ", "or ", "union ", "all ", "null ", "is ", "not ", "x ",
+            "join ", "inner ", "on ", ".", "  ", "9", "ms", "in ", "\u0663 ", "count(*) ", "dbo.t(nolock) ",
+            "with (NOLOCK) ", "getdate() ", "between ", "order by ", "asc ", "like ", "'it''s' ", "'5' ", "",
+            " select ", "SELECT ", "select a from s.t where a=1; 3 ms.", "update s.t set a=1, b=2 where c=3",
+            "insert into s.t (a, b) values (1, 2)" };
+
+    static String randomStatement(Random random) {
+        if (random.nextInt(50) == 0) {
+            return null;
+        }
+        StringBuilder statement = new StringBuilder();
+        if (random.nextInt(3) > 0) {
+            statement.append(FRAGMENTS[random.nextInt(3)]);
+        }
+        int length = random.nextInt(14);
+        for (int i = 0; i < length; i++) {
+            statement.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return statement.toString();
+    }
+
+    /**
+     * The previous parser also took candidate indexes from statements it failed on, so
+     * those are compared with an advisor fed only the statements it parsed.
+     */
+    private static void assertSameState(String session, PreviousQueryParser expected, IndexAdvisor parsed,
+            QueryParser actual) throws Exception {
+        assertEquals(session, String.valueOf(expected.getResults()), String.valueOf(actual.getResults()));
+        assertEquals(session, expected.getAllFailedQuerys(), actual.getAllFailedQuerys());
+        assertEquals(session, expected.getLastFailedQuery(), actual.getLastFailedQuery());
+        assertEquals(session, expected.getMaxQueryTime(), actual.getMaxQueryTime());
+        assertEquals(session, expected.getAverageQueryTime(), actual.getAverageQueryTime());
+        assertEquals(session, expected.getLongestQueryTimeString(), actual.getLongestQueryTimeString());
+        assertEquals(session, String.valueOf(parsed.toJSON()), String.valueOf(actual.getCandidateIndexes()));
+    }
+
+    @Test
+    public void matchesThePreviousParserOnRandomSessions() throws Exception {
+        Random random = new Random(37);
+        for (int session = 0; session < 5000; session++) {
+            PreviousQueryParser expected = new PreviousQueryParser();
+            IndexAdvisor parsed = new IndexAdvisor();
+            QueryParser actual = new QueryParser();
+            StringBuilder statements = new StringBuilder();
+            int count = 1 + random.nextInt(20);
+            for (int i = 0; i < count; i++) {
+                String statement = randomStatement(random);
+                statements.append('\n').append(statement);
+                boolean success = expected.processQuery(statement);
+                assertEquals(statements.toString(), success, actual.parse(statement).isSuccess());
+                if (success) {
+                    parsed.record(statement.toLowerCase().trim());
+                }
+            }
+            assertSameState(statements.toString(), expected, parsed, actual);
+        }
+    }
+
+    @Test
+    public void parseResults() {
+        QueryParser parser = new QueryParser();
+        assertEquals(ParseResult.SUCCESS, parser.parse("select t.a, t.b from s.t t where t.a=1; 3 ms."));
+        assertEquals(ParseResult.SUCCESS, parser.parse("insert into s.t (a) values (1)"));
+        assertEquals(ParseResult.SUCCESS, parser.parse("update s.t set a=1 where b=2"));
+        assertEquals(ParseResult.Status.UNSUPPORTED, parser.parse("delete from s.t").getStatus());
+        assertEquals(ParseResult.Reason.NO_STATEMENT, parser.parse(null).getReason());
+        assertEquals(ParseResult.Reason.NO_COMMAND_WORD, parser.parse("select").getReason());
+        assertEquals(ParseResult.Reason.MISSING_FROM, parser.parse("select 1").getReason());
+        assertEquals(ParseResult.Reason.MISSING_VALUES, parser.parse("insert into s.t (a)").getReason());
+
+        ParseResult result = parser.parse("select a, b from t");
+        assertEquals(ParseResult.Status.MALFORMED, result.getStatus());
+        assertEquals(ParseResult.Reason.MISSING_SCHEMA, result.getReason());
+        assertEquals("select a, b from t", parser.getLastFailedQuery());
+        assertEquals(17, result.getOffset());
+
+        result = parser.parse("select count(* from s.t");
+        assertEquals(ParseResult.Reason.UNBALANCED_PARENTHESES, result.getReason());
+        assertEquals(12, result.getOffset());
+    }
+
+    @Test
+    public void failedStatementsSuggestNoIndexes() {
+        QueryParser parser = new QueryParser();
+        assertEquals(ParseResult.Reason.MISSING_COLUMN_SEPARATOR, parser.parse("select t.a from s.t t where t.a=1")
+                .getReason());
+        assertEquals(0, parser.getCandidateIndexes().length());
+        assertEquals(ParseResult.SUCCESS, parser.parse("select t.a, t.b from s.t t where t.a=1"));
+        assertEquals(1, parser.getCandidateIndexes().length());
+    }
+
+    @Test
+    public void failedQuerysAreBounded() {
+        QueryParser parser = new QueryParser();
+        for (int i = 0; i < QueryParser.MAX_FAILED_QUERYS + 5; i++) {
+            parser.parse("select a, b from t" + i);
+        }
+        assertEquals(QueryParser.MAX_FAILED_QUERYS, parser.getAllFailedQuerys().size());
+        assertEquals("select a, b from t0", parser.getAllFailedQuerys().get(0));
+        assertEquals(QueryParser.MAX_FAILED_QUERYS + 5, parser.getFailedQueryCount());
+        assertEquals("select a, b from t" + (QueryParser.MAX_FAILED_QUERYS + 4), parser.getLastFailedQuery());
+    }
+}
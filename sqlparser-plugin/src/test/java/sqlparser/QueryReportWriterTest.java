@@ -0,0 +1,52 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class QueryReportWriterTest {
+    static List<QueryRecord> records(int count) {
+        List<QueryRecord> records = new ArrayList<QueryRecord>();
+        for (int i = 0; i < count; i++) {
+            List<String> rows = i % 2 == 0 ? Collections.<String> emptyList() : Arrays.asList("'a', " + i, "'b\\\\'");
+            records.add(new QueryRecord("connect to URL jdbc:h2:mem:" + i % 3 + " for user sa",
+                    "select \"x\" from t where s = 'it''s \\\\ </script> \u00e9\t" + i + "'; " + i + " ms.", rows,
+                    String.valueOf(rows.size())));
+        }
+        return records;
+    }
+
+    static String toString4(List<QueryRecord> records) throws Exception {
+        JSONObject report = new JSONObject();
+        for (QueryRecord record : records) {
+            if (report.isNull("queries")) {
+                report.put("queries", new JSONArray());
+            }
+            report.append("queries", record.toJSON());
+        }
+        return report.toString(4) + System.getProperty("line.separator");
+    }
+
+    @Test
+    public void writesWhatJSONObjectToString4Writes() throws Exception {
+        for (int count = 0; count <= 5; count++) {
+            List<QueryRecord> records = records(count);
+            StringWriter out = new StringWriter();
+            QueryReportWriter writer = new QueryReportWriter(out);
+            for (QueryRecord record : records) {
+                writer.write(record);
+            }
+            writer.close();
+            assertEquals("records: " + count, toString4(records), out.toString());
+            assertEquals(count, writer.getCount());
+        }
+    }
+}
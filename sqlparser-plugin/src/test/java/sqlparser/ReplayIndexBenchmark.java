@@ -0,0 +1,171 @@
+package sqlparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures {@link ReplayIndex} lookups/s for a growing number of concurrent clients, both
+ * in-process and through {@link ReplayServer}.
+ *
+ * <p>Not a unit test; run with
+ * <code>java -cp target/classes:target/test-classes:json.jar sqlparser.ReplayIndexBenchmark [statements] [seconds]</code>
+ */
+public class ReplayIndexBenchmark {
+    private static final String URL = "jdbc:jtds:sqlserver://10.26.34.10:1433;DatabaseName=DBCC_ECOMM";
+
+    public static void main(String[] args) throws Exception {
+        final int statements = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        File file = File.createTempFile("replay", ".idx");
+        file.deleteOnExit();
+        ReplayIndexWriter writer = new ReplayIndexWriter(File.createTempFile("replay", ".tmp"));
+        List<String> rows = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            rows.add("'CHECK_MAX_ALLOWED_UPGRADE_PROMO', " + i + ", '2014-02-11 18:07:17', 'Purchase Rule'");
+        }
+        for (int i = 0; i < statements; i++) {
+            writer.onRecord(new QueryRecord("connect to URL " + URL + " for user app_build", statement(i) + "; 4 ms.",
+                    rows, "5"));
+        }
+        writer.writeTo(file);
+        final ReplayIndex index = ReplayIndex.open(file);
+        System.out.println(index.size() + " statements, " + (file.length() >> 10) + " KB");
+
+        for (int clients = 1; clients <= Runtime.getRuntime().availableProcessors() * 2; clients *= 2) {
+            report("in-process", clients, run(clients, statements, seconds, new Client() {
+                public Client open() {
+                    return this;
+                }
+
+                public boolean lookup(String statement) {
+                    return index.lookup(URL, statement) != null;
+                }
+
+                public void close() {
+                }
+            }));
+        }
+
+        final ReplayServer server = new ReplayServer(index, 0);
+        Thread serving = new Thread() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        serving.setDaemon(true);
+        serving.start();
+        for (int clients = 1; clients <= Runtime.getRuntime().availableProcessors() * 2; clients *= 2) {
+            report("socket", clients, run(clients, statements, seconds, new SocketClient(server.getPort())));
+        }
+        server.close();
+    }
+
+    private static String statement(int i) {
+        return "select country0_.country_code as country_1_27_, country0_.country_name as country_3_27_ "
+                + "from AppUser.country country0_ where country0_.country_code='C" + i + "'";
+    }
+
+    private static void report(String mode, int clients, long[] result) {
+        double perSecond = result[0] * 1e9 / result[1];
+        System.out.println(String.format("%-10s %3d clients: %,12.0f lookups/s, %8.2f us/lookup per client",
+                mode, clients, perSecond, clients * 1e6 / perSecond));
+    }
+
+    /**
+     * @return lookups done and nanoseconds taken
+     */
+    private static long[] run(int clients, final int statements, final int seconds, final Client factory)
+            throws Exception {
+        final AtomicLong lookups = new AtomicLong();
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int t = 0; t < clients; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        Client client = factory.open();
+                        Random random = new Random(seed);
+                        long deadline = System.nanoTime() + seconds * 1000000000L;
+                        long done = 0;
+                        while (System.nanoTime() < deadline) {
+                            for (int i = 0; i < 100; i++) {
+                                if (!client.lookup(statement(random.nextInt(statements)))) {
+                                    throw new IllegalStateException("missing statement");
+                                }
+                            }
+                            done += 100;
+                        }
+                        client.close();
+                        lookups.addAndGet(done);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new long[] { lookups.get(), System.nanoTime() - start };
+    }
+
+    private interface Client {
+        Client open() throws Exception;
+
+        boolean lookup(String statement) throws Exception;
+
+        void close() throws Exception;
+    }
+
+    private static final class SocketClient implements Client {
+        private final int port;
+        private Socket socket;
+        private BufferedReader in;
+        private BufferedWriter out;
+
+        SocketClient(int port) {
+            this.port = port;
+        }
+
+        public Client open() throws Exception {
+            SocketClient client = new SocketClient(port);
+            client.socket = new Socket("localhost", port);
+            client.socket.setTcpNoDelay(true);
+            client.in = new BufferedReader(new InputStreamReader(client.socket.getInputStream(), "UTF-8"));
+            client.out = new BufferedWriter(new OutputStreamWriter(client.socket.getOutputStream(), "UTF-8"));
+            return client;
+        }
+
+        public boolean lookup(String statement) throws Exception {
+            out.write(URL);
+            out.write('\t');
+            out.write(statement);
+            out.write('\n');
+            out.flush();
+            int rows = Integer.parseInt(in.readLine());
+            for (int i = 0; i < rows; i++) {
+                in.readLine();
+            }
+            return rows >= 0;
+        }
+
+        public void close() throws Exception {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayIndexTest {
+    private static final String A = "jdbc:jtds:sqlserver://10.0.0.1:1433;DatabaseName=A";
+    private static final String B = "jdbc:jtds:sqlserver://10.0.0.2:1433;DatabaseName=B";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static QueryRecord record(String url, String query, String... rows) {
+        return new QueryRecord("connect to URL " + url + " for user app", query, Arrays.asList(rows),
+                Integer.toString(rows.length));
+    }
+
+    private static List<String> rows(ReplayIndex index, String url, String statement) {
+        ReplayIndex.Rows rows = index.lookup(url, statement);
+        return rows == null ? null : rows.getRows();
+    }
+
+    @Test
+    public void writeThenLookup() throws Exception {
+        File file = folder.newFile("replay.idx");
+        ReplayIndexWriter writer = new ReplayIndexWriter(folder.newFile("replay.part"));
+        writer.onRecord(record(A, "select a from s.t where id=1; 3 ms.", "'x'", "'y'"));
+        writer.onRecord(record(B, "select a from s.t where id=1; 5 ms.", "'z'"));
+        writer.onRecord(record(A, "select a from s.t where id=1; 9 ms.", "'later'"));
+        writer.onRecord(record(A, "select \u00e9 from s.t", "'\u00e9'"));
+        for (int i = 0; i < 1000; i++) {
+            writer.onRecord(record(A, "select b from s.u where id=" + i, "'" + i + "'"));
+        }
+        assertEquals(1003, writer.size());
+        writer.writeTo(file);
+
+        ReplayIndex index = ReplayIndex.open(file);
+        assertEquals(1003, index.size());
+        assertEquals(Arrays.asList("'x'", "'y'"), rows(index, A, "select a from s.t where id=1"));
+        assertEquals("2", index.lookup(A, "select  a from s.t\twhere id=1 ;").getTotal());
+        assertEquals(Arrays.asList("'z'"), rows(index, B, "select a from s.t where id=1; 1 ms."));
+        assertEquals(Arrays.asList("'\u00e9'"), rows(index, A, "select \u00e9 from s.t"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Arrays.asList("'" + i + "'"), rows(index, A, "select b from s.u where id=" + i));
+        }
+        assertNull(index.lookup(A, "select a from s.t where id=2"));
+        assertNull(index.lookup(B, "select b from s.u where id=1"));
+        assertNull(index.lookup("", ""));
+    }
+
+    @Test
+    public void resumedWriterKeepsTheFirstRecording() throws Exception {
+        File scratch = folder.newFile("replay.part");
+        ReplayIndexWriter writer = new ReplayIndexWriter(scratch);
+        writer.onRecord(record(A, "select a from s.t", "'first'"));
+        writer.flush();
+
+        writer = new ReplayIndexWriter(scratch, writer.getState());
+        writer.onRecord(record(A, "select a from s.t", "'second'"));
+        writer.onRecord(record(A, "select b from s.t", "'b'"));
+        File file = folder.newFile("replay.idx");
+        writer.writeTo(file);
+
+        ReplayIndex index = ReplayIndex.open(file);
+        assertEquals(2, index.size());
+        assertEquals(Arrays.asList("'first'"), rows(index, A, "select a from s.t"));
+        assertEquals(Arrays.asList("'b'"), rows(index, A, "select b from s.t"));
+    }
+
+    @Test
+    public void serverAnswersAndDisconnectsClientsOnClose() throws Exception {
+        File file = folder.newFile("replay.idx");
+        ReplayIndexWriter writer = new ReplayIndexWriter(folder.newFile("replay.part"));
+        writer.onRecord(record(A, "select a from s.t", "'x'", "'y'"));
+        writer.writeTo(file);
+        final ReplayServer server = new ReplayServer(ReplayIndex.open(file), 0);
+        Thread serving = new Thread() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        serving.start();
+
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            socket.setSoTimeout(10000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            out.write(A + "\tselect a from s.t\n" + B + "\tselect a from s.t\n");
+            out.flush();
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < 4; i++) {
+                lines.add(in.readLine());
+            }
+            assertEquals(Arrays.asList("2", "'x'", "'y'", "-1"), lines);
+
+            server.close();
+            serving.join(10000);
+            assertNull(in.readLine());
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportSummaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ReportSummary summarize(String log) throws Exception {
+        File file = folder.newFile("container" + System.nanoTime() + ".log");
+        TestLogs.write(file, log, false);
+        LogScan scan = new ScanSettings(1, 0, 0, 1, 0).newScan(folder.newFolder("out" + System.nanoTime()), null,
+                TestLogs.UTF8);
+        scan.run(file);
+        return ReportSummary.read(scan.getOutputDir());
+    }
+
+    @Test
+    public void summarizesTheOutputsOfAScan() throws Exception {
+        String log = SQLLogPipelineTest.log(300) + "Jun 06, 2014 12:17:04 PM org.jdbcdslog.StatementLogger info\n"
+                + "INFO: select a, b from t where a='x'; 5 ms.\n"
+                + "Jun 06, 2014 12:17:04 PM org.jdbcdslog.StatementLogger info\n"
+                + "INFO: Total of 0 rows read from JDBC ResultSet\n";
+        ReportSummary summary = summarize(log);
+        assertEquals(301, summary.getStatements());
+        assertEquals(1, summary.getFailed());
+        // QueryParser drops the digits of table0 to table6
+        assertEquals(1, summary.getTables());
+
+        List<ReportSummary.TopStatement> top = summary.getTopStatements();
+        assertEquals(ReportSummary.TOP_STATEMENTS, top.size());
+        for (int table = 0; table < top.size(); table++) {
+            ReportSummary.TopStatement statement = top.get(table);
+            assertEquals("select t0_.code as code1_, t0_.name as name2_ from appuser.table" + table
+                    + " t0_ where t0_.name=?", statement.getFingerprint());
+            assertEquals(43, statement.getCount());
+            long millis = 0;
+            for (int i = table; i < 300; i += 7) {
+                millis += i % 13;
+            }
+            assertEquals(millis, statement.getTotalMillis());
+        }
+    }
+
+    @Test
+    public void reportsWithOneAndNoStatements() throws Exception {
+        ReportSummary one = summarize(SQLLogPipelineTest.log(1));
+        assertEquals(1, one.getStatements());
+        assertEquals(1, one.getTables());
+        assertEquals(1, one.getTopStatements().size());
+        assertEquals(1, one.getTopStatements().get(0).getCount());
+
+        ReportSummary none = summarize("INFO: nothing logged\n");
+        assertEquals(0, none.getStatements());
+        assertEquals(0, none.getFailed());
+        assertEquals(0, none.getTables());
+        assertEquals(0, none.getTopStatements().size());
+    }
+}
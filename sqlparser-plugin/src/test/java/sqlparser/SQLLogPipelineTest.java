@@ -0,0 +1,132 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SQLLogPipelineTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static String log(int statements) {
+        StringBuilder log = new StringBuilder();
+        log.append("Jun 06, 2014 12:17:04 PM org.jdbcdslog.ConnectionLogger info\n");
+        log.append("INFO: connect to URL jdbc:jtds:sqlserver://db:1433;DatabaseName=APP for user app\n");
+        for (int i = 0; i < statements; i++) {
+            log.append("Jun 06, 2014 12:17:04 PM org.jdbcdslog.StatementLogger info\n");
+            log.append("INFO: select t0_.code as code1_, t0_.name as name2_ from AppUser.table").append(i % 7)
+                    .append(" t0_ where t0_.name='Zo\u00eb ").append(i).append("'; ").append(i % 13).append(" ms.\r\n");
+            for (int r = 0; r < i % 3; r++) {
+                log.append("Jun 06, 2014 12:17:04 PM org.jdbcdslog.ResultSetLogger info\n");
+                log.append("INFO: java.sql.ResultSet.next {'C").append(r).append("', 'M\u00fcller'}\n");
+            }
+            log.append("Jun 06, 2014 12:17:04 PM org.jdbcdslog.StatementLogger info\n");
+            log.append("INFO: Total of ").append(i % 3).append(" rows read from JDBC ResultSet\n");
+            if (i % 10 == 0) {
+                log.append("INFO: unrelated output \u20ac\n");
+            }
+        }
+        return log.toString();
+    }
+
+    /**
+     * The report as the publisher wrote it before the scan was pipelined: the log read
+     * line by line into a JSONObject printed with toString(4). The rows are referenced by
+     * their hash, as the report has done since the result sets are stored separately.
+     */
+    static String referenceReport(String log) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(log.getBytes(UTF8)), UTF8));
+        Pattern connectionPattern = Pattern.compile("jdbcds.*ConnectionLogger");
+        Pattern statementPattern = Pattern.compile("jdbcds.*StatementLogger");
+        Pattern resultPattern = Pattern.compile("jdbcds.*ResultSetLogger");
+        Pattern totalPattern = Pattern.compile("Total of (.*) rows read");
+        String nextType = "";
+        String connection = "";
+        String query = "";
+        List<String> results = new ArrayList<String>();
+        boolean printNext = false;
+        JSONObject queries = new JSONObject();
+        String line;
+        while ((line = in.readLine()) != null) {
+            Matcher totalMatcher = totalPattern.matcher(line);
+            if (printNext) {
+                if (nextType.equals("statement") && totalMatcher.find()) {
+                    JSONObject queryObj = new JSONObject();
+                    queryObj.put("connection", connection);
+                    queryObj.put("query", query);
+                    queryObj.put("resultsHash", QueryRecord.hash(results));
+                    queryObj.put("total", totalMatcher.group(1));
+                    if (queries.isNull("queries")) {
+                        queries.put("queries", new JSONArray());
+                    }
+                    queries.append("queries", queryObj);
+                    results.clear();
+                } else if (nextType.equals("statement")) {
+                    query = line.substring(6);
+                } else if (nextType.equals("connection")) {
+                    connection = line.substring(6);
+                } else if (nextType.equals("result")) {
+                    String result = line.substring(31);
+                    results.add(result.substring(0, result.length() - 1));
+                }
+            }
+            printNext = true;
+            if (connectionPattern.matcher(line).find()) {
+                nextType = "connection";
+            } else if (statementPattern.matcher(line).find()) {
+                nextType = "statement";
+            } else if (resultPattern.matcher(line).find()) {
+                nextType = "result";
+            } else {
+                printNext = false;
+            }
+        }
+        return queries.toString(4) + System.getProperty("line.separator");
+    }
+
+    private static String report(String log, SQLLogPipeline pipeline) throws Exception {
+        StringWriter report = new StringWriter();
+        pipeline.run(new ByteArrayInputStream(log.getBytes(UTF8)), UTF8, report);
+        return report.toString();
+    }
+
+    @Test
+    public void reportMatchesTheSequentialScan() throws Exception {
+        for (int statements : new int[] { 0, 1, 2, 3, 250 }) {
+            String log = log(statements);
+            String expected = referenceReport(log);
+            assertEquals(expected, report(log, new SQLLogPipeline(0, 0, 0)));
+            assertEquals(expected, report(log, new SQLLogPipeline(1, 1, 1)));
+            assertEquals(expected, report(log, new SQLLogPipeline(4, 7, 2)));
+        }
+    }
+
+    @Test
+    public void recordsSpanningBatchesAndAnUnterminatedLastLine() throws Exception {
+        String log = log(40);
+        log = log.substring(0, log.length() - 1);
+        String expected = referenceReport(log);
+        for (int batchSize = 1; batchSize <= 9; batchSize++) {
+            assertEquals(expected, report(log, new SQLLogPipeline(3, batchSize, 1)));
+        }
+    }
+
+    @Test
+    public void readPhaseCountsTheBytesOfTheLog() throws Exception {
+        byte[] bytes = log(500).getBytes(UTF8);
+        ScanMetrics metrics = new ScanMetrics();
+        new SQLLogPipeline(2, 64, 4).run(new ByteArrayInputStream(bytes), UTF8, new StringWriter(), metrics);
+        assertEquals(bytes.length, metrics.phase(ScanMetrics.READ).getBytes());
+    }
+}
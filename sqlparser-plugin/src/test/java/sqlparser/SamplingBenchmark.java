@@ -0,0 +1,131 @@
+package sqlparser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares a full scan with sampled scans of 10% and 1% of the statements: wall time,
+ * and how far the estimated totals and latency percentiles are from the exact values.
+ *
+ * <p>The log is generated: a few dozen statement shapes with skewed frequencies, varying
+ * literals, log-normal latencies and a handful of result rows each.
+ *
+ * <p>Not a unit test; run with
+ * <code>java -cp target/classes:target/test-classes:json.jar sqlparser.SamplingBenchmark [statements] [runs]</code>
+ */
+public class SamplingBenchmark {
+    private static final int SHAPES = 40;
+    private static final double[] FRACTIONS = { 1, 0.1, 0.01 };
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+    public static void main(String[] args) throws Exception {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        final File log = File.createTempFile("sampling", ".log");
+        log.deleteOnExit();
+        long[] millis = new long[statements];
+        long rows = generate(log, millis);
+        long totalMillis = 0;
+        for (long ms : millis) {
+            totalMillis += ms;
+        }
+        Arrays.sort(millis);
+        System.out.println(statements + " statements, " + (log.length() >> 20) + " MB, exact total " + totalMillis
+                + " ms, " + rows + " rows");
+
+        for (double fraction : FRACTIONS) {
+            long best = Long.MAX_VALUE;
+            LogScan scan = null;
+            for (int run = 0; run < runs; run++) {
+                File out = TestLogs.tempDir("sampling");
+                scan = new LogScan(new SQLLogPipeline(0, 0, 0), out, null, TestLogs.UTF8);
+                scan.setSampleFraction(fraction);
+                long start = System.nanoTime();
+                scan.run(new LogScan.LogSource() {
+                    public InputStream open() throws IOException {
+                        return new FileInputStream(log);
+                    }
+                });
+                best = Math.min(best, System.nanoTime() - start);
+                for (File f : out.listFiles()) {
+                    f.delete();
+                }
+                out.delete();
+            }
+
+            System.out.printf("%n%5.1f%%  %6d ms  %d records processed%n", fraction * 100, best / 1000000,
+                    scan.getRecords());
+            StatementSampler sampler = scan.getSampler();
+            if (sampler == null) {
+                continue;
+            }
+            System.out.println("        fingerprints " + sampler.getFingerprints() + " of " + SHAPES);
+            report("total ms", totalMillis, sampler.getTotalMillis());
+            report("rows", rows, sampler.getTotalRows());
+            for (double q : PERCENTILES) {
+                long exact = millis[(int) Math.ceil(q * millis.length) - 1];
+                report("p" + Math.round(q * 100) + " ms", exact, sampler.getLatencyPercentile(q));
+            }
+        }
+    }
+
+    private static void report(String name, long exact, StatementSampler.Estimate estimate) {
+        double error = exact == 0 ? 0 : (estimate.getValue() - exact) * 100.0 / exact;
+        boolean covered = estimate.getLow() <= exact && exact <= estimate.getHigh();
+        System.out.printf("        %-9s exact %10d  estimate %12.1f  [%.1f, %.1f]  error %+6.2f%%%s%n", name, exact,
+                estimate.getValue(), estimate.getLow(), estimate.getHigh(), error, covered ? "" : "  (outside interval)");
+    }
+
+    /**
+     * Writes the log and the latency of every statement, returns the total number of rows.
+     */
+    private static long generate(File log, long[] millis) throws IOException {
+        Random random = new Random(42);
+        double[] weights = new double[SHAPES];
+        double sum = 0;
+        for (int i = 0; i < SHAPES; i++) {
+            weights[i] = 1.0 / (i + 1);
+            sum += weights[i];
+        }
+        long rows = 0;
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log), TestLogs.UTF8));
+        try {
+            TestLogs.line(out, 0, "ConnectionLogger",
+                    "connect to URL jdbc:jtds:sqlserver://10.26.34.10:1433;DatabaseName=DBCC_ECOMM for user app_build");
+            for (int i = 0; i < millis.length; i++) {
+                double pick = random.nextDouble() * sum;
+                int shape = 0;
+                while (shape < SHAPES - 1 && (pick -= weights[shape]) > 0) {
+                    shape++;
+                }
+                millis[i] = Math.round(Math.exp(1 + shape % 5 * 0.5 + random.nextGaussian() * 0.8));
+                TestLogs.line(out, i, "StatementLogger", "select t0_.code as code1_" + shape + "_, t0_.name as name2_"
+                        + shape + "_ from AppUser.table" + shape + " t0_ where t0_.code='C" + random.nextInt(100000)
+                        + "' and t0_.version=" + random.nextInt(50) + "; " + millis[i] + " ms.");
+                int count = random.nextInt(shape % 7 + 1);
+                for (int r = 0; r < count; r++) {
+                    TestLogs.line(out, i, "ResultSetLogger",
+                            "java.sql.ResultSet.next {'C" + r + "', " + shape + ", 'Row " + r + "'}");
+                }
+                TestLogs.line(out, i, "StatementLogger", "Total of " + count + " rows read from JDBC ResultSet");
+                rows += count;
+                if (i % 10 == 0) {
+                    out.write("INFO: unrelated application output " + i + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return rows;
+    }
+
+}
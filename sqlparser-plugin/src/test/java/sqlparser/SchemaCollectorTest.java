@@ -0,0 +1,41 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SchemaCollectorTest {
+    private static SchemaCollector collect(String... statements) throws Exception {
+        SchemaCollector schema = new SchemaCollector(new QueryParser());
+        for (String statement : statements) {
+            schema.onRecord(new QueryRecord("", statement, Collections.<String> emptyList(), "0"));
+        }
+        return schema;
+    }
+
+    @Test
+    public void summaryIsTheTableMapAlone() throws Exception {
+        SchemaCollector schema = collect("select t0_.code as code1_, t0_.name as name2_ from AppUser.customer t0_"
+                + " where t0_.code='C1'; 3 ms.");
+        JSONObject summary = new JSONObject(schema.toJSON());
+        assertEquals(1, summary.length());
+        JSONArray columns = summary.getJSONObject("appuser").getJSONArray("customer");
+        assertEquals(2, columns.length());
+
+        JSONArray indexes = new JSONObject(schema.indexesToJSON()).getJSONArray("candidateIndexes");
+        assertEquals(1, indexes.length());
+        assertEquals("appuser.customer", indexes.getJSONObject(0).getString("table"));
+    }
+
+    @Test
+    public void emptySummary() throws Exception {
+        SchemaCollector schema = collect();
+        assertEquals("{}", schema.toJSON());
+        assertTrue(new JSONObject(schema.indexesToJSON()).getJSONArray("candidateIndexes").length() == 0);
+    }
+}
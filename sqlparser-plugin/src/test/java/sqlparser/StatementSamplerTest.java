@@ -0,0 +1,139 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StatementSamplerTest {
+    private static final String[] SHAPES = {
+        "select * from orders where id = %d; %d ms.",
+        "update stock set qty = qty - 1 where item = %d; %d ms.",
+        "select name from customer where region = %d; %d ms.",
+    };
+
+    /**
+     * A log of statements of a few shapes, whose times and rows are skewed like real ones.
+     */
+    private static List<String> statements(Random random, int count, long[] rows) {
+        List<String> statements = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int shape = random.nextInt(SHAPES.length);
+            long ms = (long) (-Math.log(1 - random.nextDouble()) * (shape + 1) * 20);
+            statements.add(String.format(SHAPES[shape], random.nextInt(100000), ms));
+            rows[i] = shape == 1 ? 0 : random.nextInt(50);
+        }
+        return statements;
+    }
+
+    private static long run(StatementSampler sampler, List<String> statements, long[] rows) {
+        long selected = 0;
+        for (int i = 0; i < statements.size(); i++) {
+            if (sampler.select(statements.get(i))) {
+                selected++;
+            }
+            sampler.completed(rows[i]);
+        }
+        return selected;
+    }
+
+    @Test
+    public void estimatesAreExactWithoutSampling() {
+        long[] rows = new long[500];
+        List<String> statements = statements(new Random(1), rows.length, rows);
+        StatementSampler sampler = new StatementSampler(1);
+        assertEquals(rows.length, run(sampler, statements, rows));
+
+        long totalMillis = 0;
+        long totalRows = 0;
+        for (int i = 0; i < rows.length; i++) {
+            totalMillis += StatementFingerprint.millis(statements.get(i));
+            totalRows += rows[i];
+        }
+        assertExact(totalMillis, sampler.getTotalMillis());
+        assertExact(totalRows, sampler.getTotalRows());
+        StatementSampler.Estimate median = sampler.getLatencyPercentile(0.5);
+        assertEquals(median.getValue(), median.getLow(), 0);
+        assertEquals(median.getValue(), median.getHigh(), 0);
+        assertEquals(rows.length, sampler.getSampled());
+        assertEquals(SHAPES.length, sampler.getFingerprints());
+    }
+
+    private static void assertExact(long expected, StatementSampler.Estimate estimate) {
+        assertEquals(expected, estimate.getValue(), 1e-6 * expected);
+        assertEquals(estimate.getValue(), estimate.getLow(), 0);
+        assertEquals(estimate.getValue(), estimate.getHigh(), 0);
+    }
+
+    @Test
+    public void intervalsCoverTheExactTotals() {
+        int trials = 200;
+        int coveredMillis = 0;
+        int coveredRows = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            long[] rows = new long[2000];
+            List<String> statements = statements(new Random(trial), rows.length, rows);
+            StatementSampler sampler = new StatementSampler(0.2);
+            run(sampler, statements, rows);
+
+            long totalMillis = 0;
+            long totalRows = 0;
+            for (int i = 0; i < rows.length; i++) {
+                totalMillis += StatementFingerprint.millis(statements.get(i));
+                totalRows += rows[i];
+            }
+            StatementSampler.Estimate millis = sampler.getTotalMillis();
+            if (millis.getLow() <= totalMillis && totalMillis <= millis.getHigh()) {
+                coveredMillis++;
+            }
+            StatementSampler.Estimate total = sampler.getTotalRows();
+            if (total.getLow() <= totalRows && totalRows <= total.getHigh()) {
+                coveredRows++;
+            }
+            assertTrue(sampler.getSampled() > 300 && sampler.getSampled() < 500);
+        }
+        // 95% intervals; allow for the normal approximation and the trials being few
+        assertTrue("total ms covered in " + coveredMillis + " of " + trials, coveredMillis >= trials * 85 / 100);
+        assertTrue("total rows covered in " + coveredRows + " of " + trials, coveredRows >= trials * 85 / 100);
+    }
+
+    @Test
+    public void selectionIsDeterministicAndKeepsTheFirstOfEachShape() {
+        long[] rows = new long[1000];
+        List<String> statements = statements(new Random(7), rows.length, rows);
+        StatementSampler a = new StatementSampler(0.01);
+        StatementSampler b = new StatementSampler(0.01);
+        List<String> seen = new ArrayList<String>();
+        for (int i = 0; i < statements.size(); i++) {
+            String statement = statements.get(i);
+            String fingerprint = StatementFingerprint.of(statement);
+            boolean selected = a.select(statement);
+            assertEquals(selected, b.select(statement));
+            if (!seen.contains(fingerprint)) {
+                assertTrue(selected);
+                seen.add(fingerprint);
+            }
+            a.completed(rows[i]);
+            b.completed(rows[i]);
+        }
+        assertEquals(SHAPES.length, a.getFingerprints());
+        assertEquals(rows.length, a.getStatements());
+        assertEquals(a.getSampled(), b.getSampled());
+        assertTrue(a.getSampled() < 50);
+    }
+
+    @Test
+    public void aShapeSeenOnceIsCountedByItsFirstExecution() {
+        StatementSampler sampler = new StatementSampler(0.5);
+        assertTrue(sampler.select("select * from t where id = 1; 12 ms."));
+        sampler.completed(3);
+        assertExact(12, sampler.getTotalMillis());
+        assertExact(3, sampler.getTotalRows());
+        assertFalse(sampler.getLatencyPercentile(0.9) == null);
+    }
+}
@@ -0,0 +1,105 @@
+package sqlparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class StatementTimelineTest {
+    private static final long SECOND = 1000;
+
+    /**
+     * A timeline of one-second buckets with one statement in each of the first
+     * {@link StatementTimeline#MAX_BUCKETS} seconds, the last one logged before the one
+     * before it.
+     */
+    private static StatementTimeline full() {
+        StatementTimeline timeline = new StatementTimeline(SECOND);
+        for (int i = 0; i < StatementTimeline.MAX_BUCKETS - 2; i++) {
+            timeline.statement(i * SECOND, 1, 1);
+        }
+        timeline.statement((StatementTimeline.MAX_BUCKETS - 1) * SECOND, 1, 1);
+        timeline.statement((StatementTimeline.MAX_BUCKETS - 2) * SECOND, 1, 1);
+        assertEquals(StatementTimeline.MAX_BUCKETS, timeline.getBuckets());
+        assertEquals(SECOND, timeline.getBucketMillis());
+        return timeline;
+    }
+
+    private static long statements(StatementTimeline timeline, long start) throws Exception {
+        JSONObject json = timeline.toJSON();
+        JSONArray starts = json.getJSONArray("start");
+        for (int i = 0; i < starts.length(); i++) {
+            if (starts.getLong(i) == start) {
+                return json.getJSONArray("statements").getLong(i);
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void widensPastMaxBuckets() throws Exception {
+        StatementTimeline timeline = full();
+        timeline.statement(StatementTimeline.MAX_BUCKETS * SECOND, 1, 1);
+
+        assertEquals(2 * SECOND, timeline.getBucketMillis());
+        assertEquals(SECOND, timeline.getRequestedMillis());
+        assertEquals(StatementTimeline.MAX_BUCKETS / 2 + 1, timeline.getBuckets());
+        JSONObject json = timeline.toJSON();
+        JSONArray starts = json.getJSONArray("start");
+        JSONArray statements = json.getJSONArray("statements");
+        JSONArray rows = json.getJSONArray("rows");
+        long total = 0;
+        for (int i = 0; i < starts.length(); i++) {
+            assertEquals(0, starts.getLong(i) % (2 * SECOND));
+            assertEquals(i < starts.length() - 1 ? 2 : 1, statements.getLong(i));
+            assertEquals(statements.getLong(i), rows.getLong(i));
+            total += statements.getLong(i);
+        }
+        assertEquals(StatementTimeline.MAX_BUCKETS + 1, total);
+        assertEquals(2, json.getJSONArray("latencyHistogram").getJSONArray(0).getLong(1));
+    }
+
+    @Test
+    public void statementsAfterWideningGoToTheMergedBuckets() throws Exception {
+        // the cached bucket before widening starts at MAX_BUCKETS - 2 seconds, which is
+        // still a bucket start after it, holding the merged statements of two seconds
+        StatementTimeline timeline = full();
+        long lastStart = (StatementTimeline.MAX_BUCKETS - 2) * SECOND;
+        long next = StatementTimeline.MAX_BUCKETS * SECOND;
+        timeline.statement(next, 1, 1);
+
+        timeline.statement(lastStart + 1500, 1, 1);
+        assertEquals(3, statements(timeline, lastStart));
+        timeline.statement(next + 1999, 1, 1);
+        assertEquals(2, statements(timeline, next));
+        timeline.statement(SECOND, 1, 1);
+        assertEquals(3, statements(timeline, 0));
+        assertEquals(StatementTimeline.MAX_BUCKETS / 2 + 1, timeline.getBuckets());
+    }
+
+    @Test
+    public void continuesAfterBeingRestored() throws Exception {
+        StatementTimeline timeline = new StatementTimeline(SECOND);
+        timeline.statement(500, 1, 1);
+        timeline.statement(-1, 1, 1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(timeline);
+        out.close();
+        StatementTimeline restored = (StatementTimeline) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        restored.statement(900, 1, 1);
+        restored.statement(0, 1, 1);
+        assertEquals(3, statements(restored, 0));
+        assertEquals(1, restored.getBuckets());
+        assertEquals(1, restored.toJSON().getLong("untimestamped"));
+    }
+}
@@ -0,0 +1,93 @@
+package sqlparser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Writing and reading the logs and outputs of the tests and benchmarks.
+ */
+final class TestLogs {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TestLogs() {
+    }
+
+    static void write(File file, String text, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(text.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+
+    static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int at = 0;
+            int n;
+            while (at < bytes.length && (n = in.read(bytes, at, bytes.length - at)) != -1) {
+                at += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * An empty directory that is not cleaned up, for benchmarks.
+     */
+    static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    /**
+     * Writes a logger's marker line and its payload, timestamped as the i-th statement of
+     * a log running a thousand statements a second.
+     */
+    static void line(Writer out, int i, String logger, String payload) throws IOException {
+        out.write("Jun 06, 2014 12:" + (10 + i / 6000 % 50) + ":0" + i / 1000 % 6 + " PM org.jdbcdslog." + logger
+                + " info\n");
+        out.write("INFO: " + payload + "\n");
+    }
+
+    /**
+     * Writes a log of one connection running the given number of statements of 30 shapes,
+     * with up to three result rows each.
+     */
+    static void generate(File log, int statements, int seed) throws IOException {
+        Random random = new Random(seed);
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log), UTF8));
+        try {
+            line(out, 0, "ConnectionLogger", "connect to URL jdbc:jtds:sqlserver://10.26.34.10:1433;DatabaseName=DB"
+                    + seed + " for user app_build");
+            for (int i = 0; i < statements; i++) {
+                int shape = random.nextInt(30);
+                line(out, i, "StatementLogger", "select t0_.code as code1_" + shape + "_, t0_.name as name2_" + shape
+                        + "_ from AppUser.table" + (shape + seed) + " t0_ where t0_.code='C" + random.nextInt(100000)
+                        + "' and t0_.version=" + random.nextInt(50) + "; " + random.nextInt(20) + " ms.");
+                int count = random.nextInt(4);
+                for (int r = 0; r < count; r++) {
+                    line(out, i, "ResultSetLogger", "java.sql.ResultSet.next {'C" + r + "', " + shape + "}");
+                }
+                line(out, i, "StatementLogger", "Total of " + count + " rows read from JDBC ResultSet");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}